@@ -0,0 +1,37 @@
+import java.util.function.LongSupplier;
+
+// A single benchmarked operation. Any randomness must come from fixed seeds, so that results can be
+// compared between commits.
+interface Benchmark {
+
+  String name();
+
+  // Runs before each measured iteration, and again whenever operationsPerSetup operations have run
+  // since, outside of the timed section.
+  default void setup() {}
+
+  // Benchmarks that use up what setup prepares, such as levels that end, or that change as they
+  // run, can limit how many operations run before it is prepared again. The runner then times that
+  // many operations at once, so the same operations are measured on every machine.
+  default int operationsPerSetup() {
+    return Integer.MAX_VALUE;
+  }
+
+  // Performs the operation once. The result is consumed by the runner so that the JIT cannot
+  // eliminate the work.
+  long run();
+
+  static Benchmark of(String name, LongSupplier operation) {
+    return new Benchmark() {
+      @Override
+      public String name() {
+        return name;
+      }
+
+      @Override
+      public long run() {
+        return operation.getAsLong();
+      }
+    };
+  }
+}
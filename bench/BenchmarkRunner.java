@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs the benchmarks whose names contain any of the program arguments, or all of them if there are
+// none. Each benchmark is warmed up and then measured over several timed iterations, and the mean
+// time per operation is reported with its standard deviation across iterations.
+//
+// Operations are timed in batches rather than one at a time, so that reading the clock adds nothing
+// measurable to operations that only take nanoseconds.
+class BenchmarkRunner {
+
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASUREMENT_ITERATIONS = 10;
+  private static final long ITERATION_NANOS = 500_000_000L;
+  // Batches are made at least this long, unless the benchmark limits its operations per setup.
+  private static final long BATCH_NANOS = 10_000_000L;
+  private static final int MAX_BATCH_SIZE = 1 << 30;
+
+  // Written to after every batch so that benchmark results are never dead code.
+  private static volatile long sink;
+
+  public static void main(String[] args) {
+    List<Benchmark> benchmarks = new ArrayList<>();
+
+    GenomeBenchmarks.addTo(benchmarks);
+    PopulationBenchmarks.addTo(benchmarks);
+    LevelBenchmarks.addTo(benchmarks);
+
+    System.out.printf("%-45s %15s %12s%n", "Benchmark", "ns/op", "error");
+
+    for (Benchmark benchmark : benchmarks) {
+      if (isSelected(benchmark, args)) {
+        measure(benchmark);
+      }
+    }
+  }
+
+  private static boolean isSelected(Benchmark benchmark, String[] filters) {
+    if (filters.length == 0) {
+      return true;
+    }
+
+    for (String filter : filters) {
+      if (benchmark.name().contains(filter)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static void measure(Benchmark benchmark) {
+    int batchSize = batchSize(benchmark);
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      iteration(benchmark, batchSize);
+    }
+
+    double[] nanosPerOp = new double[MEASUREMENT_ITERATIONS];
+    double mean = 0;
+
+    for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+      nanosPerOp[i] = iteration(benchmark, batchSize);
+      mean += nanosPerOp[i] / MEASUREMENT_ITERATIONS;
+    }
+
+    double variance = 0;
+
+    for (double value : nanosPerOp) {
+      variance += (value - mean) * (value - mean) / (MEASUREMENT_ITERATIONS - 1);
+    }
+
+    System.out.printf("%-45s %15.1f %12.1f%n", benchmark.name(), mean, Math.sqrt(variance));
+  }
+
+  // A benchmark that limits its operations per setup runs that many in each batch, straight after
+  // a setup, so every batch covers the same operations. Otherwise the batch size doubles until a
+  // batch takes at least BATCH_NANOS.
+  private static int batchSize(Benchmark benchmark) {
+    if (isLimited(benchmark)) {
+      return benchmark.operationsPerSetup();
+    }
+
+    int batchSize = 1;
+
+    benchmark.setup();
+
+    while (batchSize < MAX_BATCH_SIZE && batch(benchmark, batchSize) < BATCH_NANOS) {
+      batchSize *= 2;
+    }
+
+    return batchSize;
+  }
+
+  // Runs batches of the operation until the iteration time has passed, and returns the mean time
+  // per operation. Only the batches are timed, not the setup before them.
+  private static double iteration(Benchmark benchmark, int batchSize) {
+    long operations = 0;
+    long elapsed = 0;
+
+    do {
+      if (operations == 0 || isLimited(benchmark)) {
+        benchmark.setup();
+      }
+
+      elapsed += batch(benchmark, batchSize);
+      operations += batchSize;
+    } while (elapsed < ITERATION_NANOS);
+
+    return (double) elapsed / operations;
+  }
+
+  // Runs the operation 'count' times, and returns how long they took together.
+  private static long batch(Benchmark benchmark, int count) {
+    long result = 0;
+    long start = System.nanoTime();
+
+    for (int i = 0; i < count; i++) {
+      result += benchmark.run();
+    }
+
+    long elapsed = System.nanoTime() - start;
+
+    sink = result;
+
+    return elapsed;
+  }
+
+  private static boolean isLimited(Benchmark benchmark) {
+    return benchmark.operationsPerSetup() != Integer.MAX_VALUE;
+  }
+}
@@ -0,0 +1,35 @@
+// A state with no environment, for benchmarking the parts of NEAT that do not simulate anything.
+class BenchmarkState implements State {
+  @Override
+  public float evaluateFitness() {
+    return 0;
+  }
+
+  @Override
+  public void update(float[] inputs) {}
+
+  @Override
+  public float[] getGenomeInputs() {
+    return new float[0];
+  }
+
+  @Override
+  public boolean hasEnded() {
+    return true;
+  }
+
+  @Override
+  public State reset() {
+    return this;
+  }
+
+  @Override
+  public State deepCopy() {
+    return this;
+  }
+
+  @Override
+  public float activate(float x) {
+    return State.sigmoid(x);
+  }
+}
@@ -0,0 +1,110 @@
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+// Benchmarks for single genomes, shaped like the genomes that play snake.
+class GenomeBenchmarks {
+
+  private static final int INPUT_COUNT = 24;
+  private static final int OUTPUT_COUNT = 4;
+  private static final int[] HIDDEN_NODE_COUNTS = {0, 25, 100};
+  private static final int BATCH_SIZE = 256;
+  private static final long SEED = 1;
+
+  public static void addTo(List<Benchmark> benchmarks) {
+    for (int hiddenNodes : HIDDEN_NODE_COUNTS) {
+      benchmarks.add(activate(hiddenNodes));
+      benchmarks.add(activateBatch(hiddenNodes));
+      benchmarks.add(compatibilityDistance(hiddenNodes));
+      benchmarks.add(crossover(hiddenNodes));
+    }
+  }
+
+  // Grows a genome by splitting its connections, which keeps the network feed-forward.
+  static Genome genome(Population population, long seed, int hiddenNodes) {
+    Genome genome =
+        new Genome(INPUT_COUNT, OUTPUT_COUNT, new BenchmarkState(), new Random(seed), population);
+
+    while (genome.nodeCount() < INPUT_COUNT + OUTPUT_COUNT + hiddenNodes) {
+      genome.mutateAddNode();
+    }
+
+    return genome;
+  }
+
+  private static Population population() {
+    return new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BenchmarkState(), SEED);
+  }
+
+  private static Benchmark activate(int hiddenNodes) {
+    Genome genome = genome(population(), SEED, hiddenNodes);
+    SplittableRandom rng = new SplittableRandom(SEED);
+    float[] inputs = new float[INPUT_COUNT];
+
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i] = (float) rng.nextDouble();
+    }
+
+    return Benchmark.of(
+        "Genome.activate:hidden=" + hiddenNodes,
+        () -> Float.floatToIntBits(genome.activate(inputs)[0]));
+  }
+
+  private static Benchmark activateBatch(int hiddenNodes) {
+    Genome genome = genome(population(), SEED, hiddenNodes);
+    SplittableRandom rng = new SplittableRandom(SEED);
+    float[][] inputs = new float[BATCH_SIZE][INPUT_COUNT];
+    float[][] outputs = new float[BATCH_SIZE][OUTPUT_COUNT];
+
+    for (float[] row : inputs) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] = (float) rng.nextDouble();
+      }
+    }
+
+    return Benchmark.of(
+        "Genome.activate:hidden=" + hiddenNodes + ",batch=" + BATCH_SIZE,
+        () -> {
+          genome.activate(inputs, outputs);
+          return Float.floatToIntBits(outputs[BATCH_SIZE - 1][0]);
+        });
+  }
+
+  private static Benchmark compatibilityDistance(int hiddenNodes) {
+    Population population = population();
+    Genome genome1 = genome(population, SEED, hiddenNodes);
+    Genome genome2 = genome(population, SEED + 1, hiddenNodes);
+
+    return Benchmark.of(
+        "Genome.compatibilityDistance:hidden=" + hiddenNodes,
+        () -> Float.floatToIntBits(genome1.compatibilityDistance(genome2)));
+  }
+
+  private static Benchmark crossover(int hiddenNodes) {
+    Population population = population();
+    Genome parent1 = genome(population, SEED, hiddenNodes);
+    Genome parent2 = genome(population, SEED + 1, hiddenNodes);
+
+    parent1.setFitness(2);
+    parent2.setFitness(1);
+
+    return new Benchmark() {
+      private SplittableRandom rng;
+
+      @Override
+      public String name() {
+        return "Population.crossover:hidden=" + hiddenNodes;
+      }
+
+      @Override
+      public void setup() {
+        rng = new SplittableRandom(SEED);
+      }
+
+      @Override
+      public long run() {
+        return population.crossover(parent1, parent2, rng).connectionCount();
+      }
+    };
+  }
+}
@@ -0,0 +1,207 @@
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Benchmarks the snake environment on the grid size used for training. Each benchmark works on a
+// pool of seeded levels part way through a game, played with random moves that never run into the
+// snake or a wall, so that only the call being measured is timed and the snake never dies.
+class LevelBenchmarks {
+
+  private static final int GRID_WIDTH = 40;
+  private static final int GRID_HEIGHT = 40;
+  private static final int INPUT_COUNT = 24;
+  private static final int POOL_SIZE = 256;
+  // Levels are played for between MIN_TICKS and MAX_TICKS moves before they are measured.
+  private static final int MIN_TICKS = 50;
+  private static final int MAX_TICKS = 150;
+  // The number of updates measured on each level before the pool is replaced. Together with
+  // MAX_TICKS, this stays below the moves a snake is allowed without eating an apple.
+  private static final int UPDATES_PER_LEVEL = 64;
+  private static final long SEED = 1;
+
+  // The index of each move in the outputs passed to Level.update, and of each direction's vision
+  // in the genome inputs, which give 1 for a body cell or wall right next to the head.
+  private static final int[] MOVE_VISION = {0, 6, 12, 18};
+  private static final int BODY = 0;
+  private static final int WALL = 2;
+
+  public static void addTo(List<Benchmark> benchmarks) {
+    benchmarks.add(getGenomeInputs());
+    benchmarks.add(walkGenomeInputs());
+    benchmarks.add(update());
+  }
+
+  private static Benchmark getGenomeInputs() {
+    return new Benchmark() {
+      private final float[] inputs = new float[INPUT_COUNT];
+      private Level[] levels;
+      private int next;
+
+      @Override
+      public String name() {
+        return "Level.getGenomeInputs";
+      }
+
+      // Reading inputs does not change a level, so the same pool is used throughout.
+      @Override
+      public void setup() {
+        if (levels == null) {
+          levels = visionPool();
+        }
+      }
+
+      @Override
+      public long run() {
+        levels[next++ % POOL_SIZE].getGenomeInputs(inputs);
+
+        return Float.floatToIntBits(inputs[0]);
+      }
+    };
+  }
+
+  // The ray walk that getGenomeInputs replaced, on the same pool, to compare the two.
+  private static Benchmark walkGenomeInputs() {
+    return new Benchmark() {
+      private final float[] inputs = new float[INPUT_COUNT];
+      private Level[] levels;
+      private int next;
+
+      @Override
+      public String name() {
+        return "Level.walkGenomeInputs";
+      }
+
+      @Override
+      public void setup() {
+        if (levels == null) {
+          levels = visionPool();
+        }
+      }
+
+      @Override
+      public long run() {
+        levels[next++ % POOL_SIZE].walkGenomeInputs(inputs);
+
+        return Float.floatToIntBits(inputs[0]);
+      }
+    };
+  }
+
+  private static Benchmark update() {
+    return new Benchmark() {
+      private final SplittableRandom rng = new SplittableRandom(SEED);
+      private final Level[] levels = new Level[POOL_SIZE];
+      private final float[][][] moves = new float[POOL_SIZE][][];
+      private int next;
+
+      @Override
+      public String name() {
+        return "Level.update";
+      }
+
+      // Plans every level's moves on a separate copy played from the same seed, then plays the
+      // level up to the moves that are measured.
+      @Override
+      public void setup() {
+        for (int i = 0; i < POOL_SIZE; i++) {
+          int ticks = MIN_TICKS + rng.nextInt(MAX_TICKS - MIN_TICKS);
+          long seed;
+          float[][] plan;
+
+          do {
+            seed = rng.nextLong();
+            plan = plan(seed, ticks + UPDATES_PER_LEVEL, rng);
+          } while (plan == null);
+
+          levels[i] = play(seed, plan, ticks);
+          moves[i] = new float[UPDATES_PER_LEVEL][];
+          System.arraycopy(plan, ticks, moves[i], 0, UPDATES_PER_LEVEL);
+        }
+
+        next = 0;
+      }
+
+      @Override
+      public int operationsPerSetup() {
+        return POOL_SIZE * UPDATES_PER_LEVEL;
+      }
+
+      @Override
+      public long run() {
+        int level = next % POOL_SIZE;
+
+        levels[level].update(moves[level][next++ / POOL_SIZE]);
+
+        return next;
+      }
+    };
+  }
+
+  // The levels read by the vision benchmarks, which are the same on every call.
+  private static Level[] visionPool() {
+    SplittableRandom rng = new SplittableRandom(SEED);
+    Level[] levels = new Level[POOL_SIZE];
+
+    for (int i = 0; i < POOL_SIZE; i++) {
+      int ticks = MIN_TICKS + rng.nextInt(MAX_TICKS - MIN_TICKS);
+      long seed;
+      float[][] plan;
+
+      do {
+        seed = rng.nextLong();
+        plan = plan(seed, ticks, rng);
+      } while (plan == null);
+
+      levels[i] = play(seed, plan, ticks);
+    }
+
+    return levels;
+  }
+
+  // Returns 'ticks' random moves that never run into the snake or a wall on the level played from
+  // 'seed', or null if the snake dies or gets trapped before then.
+  private static float[][] plan(long seed, int ticks, SplittableRandom rng) {
+    Level level = new Level(GRID_WIDTH, GRID_HEIGHT, seed);
+    float[][] moves = new float[ticks][];
+    float[] inputs = new float[INPUT_COUNT];
+    int[] safe = new int[MOVE_VISION.length];
+
+    for (int tick = 0; tick < ticks; tick++) {
+      int safeCount = 0;
+
+      level.getGenomeInputs(inputs);
+
+      for (int move = 0; move < MOVE_VISION.length; move++) {
+        if (inputs[MOVE_VISION[move] + BODY] != 1 && inputs[MOVE_VISION[move] + WALL] != 1) {
+          safe[safeCount++] = move;
+        }
+      }
+
+      if (safeCount == 0) {
+        return null;
+      }
+
+      moves[tick] = new float[MOVE_VISION.length];
+      moves[tick][safe[rng.nextInt(safeCount)]] = 1;
+      level.update(moves[tick]);
+
+      // Vision misses the cell the snake started in, which it can still run into.
+      if (level.hasEnded()) {
+        return null;
+      }
+    }
+
+    return moves;
+  }
+
+  private static Level play(long seed, float[][] moves, int ticks) {
+    Level level = new Level(GRID_WIDTH, GRID_HEIGHT, seed);
+
+    for (int tick = 0; tick < ticks; tick++) {
+      level.update(moves[tick]);
+    }
+
+    assert !level.hasEnded();
+
+    return level;
+  }
+}
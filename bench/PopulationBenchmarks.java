@@ -0,0 +1,57 @@
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Benchmarks one generation of reproduction and speciation at several population sizes. Fitness is
+// assigned from a seeded random stream rather than by simulating the genomes. Genomes grow as the
+// population evolves, so each setup starts again from the seed and a fixed number of generations
+// are measured.
+class PopulationBenchmarks {
+
+  private static final int INPUT_COUNT = 24;
+  private static final int OUTPUT_COUNT = 4;
+  private static final int[] POPULATION_SIZES = {500, 5_000, 50_000};
+  private static final int GENERATIONS_PER_SETUP = 5;
+  private static final long SEED = 1;
+
+  public static void addTo(List<Benchmark> benchmarks) {
+    for (int populationSize : POPULATION_SIZES) {
+      benchmarks.add(nextGeneration(populationSize));
+    }
+  }
+
+  private static Benchmark nextGeneration(int populationSize) {
+    return new Benchmark() {
+      private Population population;
+      private SplittableRandom rng;
+
+      @Override
+      public String name() {
+        return "Population.nextGeneration:size=" + populationSize;
+      }
+
+      @Override
+      public void setup() {
+        population =
+            new Population(
+                populationSize, INPUT_COUNT, OUTPUT_COUNT, new BenchmarkState(), SEED);
+        rng = new SplittableRandom(SEED);
+      }
+
+      @Override
+      public int operationsPerSetup() {
+        return GENERATIONS_PER_SETUP;
+      }
+
+      @Override
+      public long run() {
+        for (int i = 0; i < populationSize; i++) {
+          population.getGenome(i).setFitness((float) rng.nextDouble());
+        }
+
+        population.nextGeneration();
+
+        return population.GENERATION_NUMBER;
+      }
+    };
+  }
+}
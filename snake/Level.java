@@ -1,7 +1,8 @@
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 /* The Level class holds all details about the current state of the game, including the Snake,
 Apple and score. It has the functionality to update the grid each frame. */
@@ -20,6 +21,15 @@ public class Level implements State {
     Vector2.WEST,
     Vector2.NORTHWEST
   );
+  /* Each direction gives the distance to the snake's body, the apple and the wall. */
+  private static final int VISION_LENGTH = 3;
+  /* The wall input for each looking direction from each cell, shared by all levels of a size. */
+  private static final Map<Long, float[][]> WALL_VISION = new ConcurrentHashMap<>();
+
+  /* The values stored in the grid. */
+  private static final byte EMPTY = 0;
+  private static final byte SNAKE = 1;
+  private static final byte APPLE = 2;
 
   private final Snake snake;
   private final Random rng;
@@ -28,60 +38,143 @@ public class Level implements State {
   private final int height;
   private final int[] allowedMoves;
 
-  private GridState[][] grid;
-  private Vector2 apple;
+  /* The state of each cell, indexed by cell(). */
+  private final byte[] grid;
+  /* The EMPTY cells of the grid in no particular order, followed by unused space. */
+  private final int[] freeCells;
+  /* The index of each EMPTY cell in freeCells, so cells can be removed without a search. */
+  private final int[] freeCellIndex;
+  private int freeCellCount;
+  /* The SNAKE cells of the grid along every row, column and diagonal, so the snake can find the
+  nearest body cell in a direction without walking the grid. Each line is indexed by x, apart from
+  columns, which are indexed by y. Diagonals are numbered by x - y + height - 1, and anti-diagonals
+  by x + y. */
+  private final BitSet[] rows;
+  private final BitSet[] columns;
+  private final BitSet[] diagonals;
+  private final BitSet[] antiDiagonals;
+  private final float[][] wallVision;
+  private int apple;
   private int score;
   private int movesSinceLastApple = 0;
 
   public Level(int width, int height) {
-    this.rng = new Random();
+    this(width, height, new Random());
+  }
+
+  /* Creates a level whose snake and apples are placed the same way every time for a given seed. */
+  public Level(int width, int height, long seed) {
+    this(width, height, new Random(seed));
+  }
+
+  private Level(int width, int height, Random rng) {
+    this.rng = rng;
     this.width = width;
     this.height = height;
     this.allowedMoves = new int[width * height + 1];
+    this.grid = new byte[width * height];
+    this.freeCells = new int[grid.length];
+    this.freeCellIndex = new int[grid.length];
+    this.freeCellCount = grid.length;
+    this.rows = lines(height);
+    this.columns = lines(width);
+    this.diagonals = lines(width + height - 1);
+    this.antiDiagonals = lines(width + height - 1);
+    this.wallVision = wallVision(width, height);
+
+    for (int cell = 0; cell < grid.length; cell++) {
+      freeCells[cell] = cell;
+      freeCellIndex[cell] = cell;
+    }
 
     for (int i = 0; i < allowedMoves.length; i++) {
       allowedMoves[i] = (int) (200 * (Math.log(i) / Math.log(3)) + 300);
     }
-    resetGrid();
-    this.snake = new Snake(this);
+    this.snake = new Snake(this, rng);
     resetApple();
   }
 
-  /* Resets the grid to all EMPTY squares. */
-  private void resetGrid() {
-    grid = new GridState[width][height];
+  /* Generates a new apple position, which is a random location that is not taken up by the snake. */
+  private void resetApple() {
+    apple = freeCells[rng.nextInt(freeCellCount)];
+    set(apple, APPLE);
+  }
+
+  /* Sets the state of a cell, keeping the free cells up to date. A cell leaving the free cells is
+  replaced by the last free cell, so both adding and removing take constant time. */
+  private void set(int cell, byte value) {
+    if (grid[cell] == EMPTY && value != EMPTY) {
+      int last = freeCells[--freeCellCount];
+
+      freeCells[freeCellIndex[cell]] = last;
+      freeCellIndex[last] = freeCellIndex[cell];
+    } else if (grid[cell] != EMPTY && value == EMPTY) {
+      freeCells[freeCellCount] = cell;
+      freeCellIndex[cell] = freeCellCount++;
+    }
 
-    for (int i = 0; i < width; i++) {
-      for (int j = 0; j < height; j++) {
-        grid[i][j] = GridState.EMPTY;
-      }
+    if (grid[cell] == SNAKE && value != SNAKE) {
+      setSnake(cell, false);
+    } else if (grid[cell] != SNAKE && value == SNAKE) {
+      setSnake(cell, true);
     }
+
+    grid[cell] = value;
   }
 
-  /* Generates a new apple position, which is a random location that is not taken up by the snake. */
-  private void resetApple() {
-    int numEmptySpaces = width * height - snake.length();
-    int randomFreeSpace = rng.nextInt(numEmptySpaces);
-    int emptySpaceCount = 0;
-
-    /* Loops through the grid and finds the randomFreeSpace within the grid that was randomly chosen
-     * according to the numEmptySpaces. */
-    for (int i = 0; i < width; i++) {
-      for (int j = 0; j < height; j++) {
-        if (grid[i][j] == GridState.EMPTY) {
-          emptySpaceCount++;
-
-          if (emptySpaceCount >= randomFreeSpace) {
-            apple = new Vector2(i, j);
-            set(apple, GridState.APPLE);
-            return;
-          }
+  private void setSnake(int cell, boolean value) {
+    int x = cell / height;
+    int y = cell % height;
+
+    rows[y].set(x, value);
+    columns[x].set(y, value);
+    diagonals[x - y + height - 1].set(x, value);
+    antiDiagonals[x + y].set(x, value);
+  }
+
+  private static BitSet[] lines(int count) {
+    BitSet[] lines = new BitSet[count];
+
+    for (int i = 0; i < count; i++) {
+      lines[i] = new BitSet();
+    }
+
+    return lines;
+  }
+
+  private static float[][] wallVision(int width, int height) {
+    return WALL_VISION.computeIfAbsent(
+        ((long) width << 32) | height, key -> computeWallVision(width, height));
+  }
+
+  /* The wall input is one over one more than the number of cells between the head and the wall. */
+  private static float[][] computeWallVision(int width, int height) {
+    float[][] wallVision = new float[LOOKING_DIRECTIONS.size()][width * height];
+
+    for (int i = 0; i < LOOKING_DIRECTIONS.size(); i++) {
+      Vector2 direction = LOOKING_DIRECTIONS.get(i);
+
+      for (int x = 0; x < width; x++) {
+        for (int y = 0; y < height; y++) {
+          int cellsX = cellsToWall(x, (int) direction.x, width);
+          int cellsY = cellsToWall(y, (int) direction.y, height);
+
+          wallVision[i][x * height + y] = 1.0f / (Math.min(cellsX, cellsY) + 1);
         }
       }
     }
 
-    /* Unreachable */
-    throw new RuntimeException("Apple location should have been chosen!");
+    return wallVision;
+  }
+
+  private static int cellsToWall(int position, int step, int size) {
+    if (step > 0) {
+      return size - 1 - position;
+    } else if (step < 0) {
+      return position;
+    }
+
+    return Integer.MAX_VALUE;
   }
 
   @Override
@@ -116,17 +209,16 @@ public class Level implements State {
 
     if (!snake.isDead()) {
       /* If the snake eats an apple... */
-      if (snake.head().equals(apple)) {
+      if (snake.head() == apple) {
         /* Increase the score and size of the snake, generate a new apple and change the
         nextAppleMoves value. */
         snake.extend();
         resetApple();
         score++;
         movesSinceLastApple = 0;
-        updateGrid(true, new Vector2());
+        updateGrid(true, 0);
       } else {
-        Vector2 tail = snake.tail();
-        updateGrid(false, tail);
+        updateGrid(false, snake.tail());
         snake.move();
       }
 
@@ -135,74 +227,130 @@ public class Level implements State {
   }
 
   /* Updates the snake's position in the grid. */
-  private void updateGrid(boolean appleEaten, Vector2 tailPos) {
+  private void updateGrid(boolean appleEaten, int tail) {
     if (!appleEaten) {
-      set(tailPos, GridState.EMPTY);
+      set(tail, EMPTY);
     }
 
-    set(snake.head(), GridState.SNAKE);
-  }
-
-  /* Sets the element stored at 'pos' in the grid array to the value 'objectType'. */
-  private void set(Vector2 pos, GridState objectType) {
-    grid[(int) pos.x][(int) pos.y] = objectType;
+    set(snake.head(), SNAKE);
   }
 
-  /* Returns a list of three numbers. They represent the distance to the snake's body, the apple
-  and the walls of the grid. */
-  private List<Float> snakeLook(Vector2 direction) {
-    /* I need to create a deep copy of snake.pos because I will be modifying it in this method. */
-    Vector2 head = snake.head().copy();
-    Float[] vision = new Float[3];
+  /* Writes three numbers to 'out' starting at 'offset'. They represent the distance to the snake's
+  body, the apple and the walls of the grid. */
+  private void snakeLook(Vector2 direction, float[] out, int offset) {
+    int x = snake.headX();
+    int y = snake.headY();
+    int dx = (int) direction.x;
+    int dy = (int) direction.y;
+    float body = 0;
+    float apple = 0;
     int distance = 1;
 
-    Arrays.fill(vision, 0.0f);
-
-    /* Move head in the direction of the dir vector specified and continue if it is still
-    within the bounds of the grid. */
-    while (withinBounds(head.add(direction))) {
-      /* If head comes in contact with the snake's body and vision[0] is unassigned... */
-      if (grid[(int) head.x][(int) head.y] == GridState.SNAKE && vision[0] == 0) {
-        vision[0] = 1.0f / distance;
+    /* Move in the direction specified and continue while still within the bounds of the grid. */
+    for (x += dx, y += dy; withinBounds(x, y); x += dx, y += dy) {
+      /* If we come in contact with the snake's body and body is unassigned... */
+      if (grid[cell(x, y)] == SNAKE && body == 0) {
+        body = 1.0f / distance;
       }
 
-      /* If head comes in contact with an apple and vision[1] is unassigned... */
-      if (grid[(int) head.x][(int) head.y] == GridState.APPLE && vision[1] == 0) {
-        vision[1] = 1.0f;
+      /* If we come in contact with an apple and apple is unassigned... */
+      if (grid[cell(x, y)] == APPLE && apple == 0) {
+        apple = 1.0f;
       }
 
       distance++;
     }
 
+    out[offset] = body;
+    out[offset + 1] = apple;
     /* Sets the distance to the wall of the grid. */
-    vision[2] = 1.0f / distance;
-
-    return Arrays.asList(vision);
+    out[offset + 2] = 1.0f / distance;
   }
 
-  /* This uses the snakeLook() method to look in eight directions around the snake (i.e. NESW,
-  and all diagonals). This forms as the input to the player's neural network. */
+  /* This looks in eight directions around the snake (i.e. NESW, and all diagonals). This forms as
+  the input to the player's neural network. */
   @Override
   public float[] getGenomeInputs() {
-    ArrayList<Float> vision = new ArrayList<>();
+    float[] inputs = new float[LOOKING_DIRECTIONS.size() * VISION_LENGTH];
+
+    getGenomeInputs(inputs);
+
+    return inputs;
+  }
+
+  /* Fills 'out' with the same inputs as getGenomeInputs() without allocating anything. Rather than
+  walking the grid, this looks up the wall distance, finds the nearest body cell in the snake's
+  lines and checks whether the apple lies on each ray directly. */
+  @Override
+  public void getGenomeInputs(float[] out) {
+    int x = snake.headX();
+    int y = snake.headY();
+
+    for (int i = 0; i < LOOKING_DIRECTIONS.size(); i++) {
+      Vector2 direction = LOOKING_DIRECTIONS.get(i);
+      int offset = i * VISION_LENGTH;
+
+      /* A dead snake's head can leave the grid, where the lookups do not apply. */
+      if (!withinBounds(x, y)) {
+        snakeLook(direction, out, offset);
+        continue;
+      }
+
+      out[offset] = bodyVision(x, y, (int) direction.x, (int) direction.y);
+      out[offset + 1] = appleVision(x, y, (int) direction.x, (int) direction.y);
+      out[offset + 2] = wallVision[i][cell(x, y)];
+    }
+  }
 
-    for (Vector2 direction : LOOKING_DIRECTIONS) {
-      vision.addAll(snakeLook(direction));
+  /* One over the number of steps to the first body cell in the direction, or 0 if there is none. */
+  private float bodyVision(int x, int y, int dx, int dy) {
+    int hit;
+    int from;
+
+    if (dx == 0) {
+      hit = nextSetBit(columns[x], y, dy);
+      from = y;
+    } else if (dy == 0) {
+      hit = nextSetBit(rows[y], x, dx);
+      from = x;
+    } else if (dx == dy) {
+      hit = nextSetBit(diagonals[x - y + height - 1], x, dx);
+      from = x;
+    } else {
+      hit = nextSetBit(antiDiagonals[x + y], x, dx);
+      from = x;
     }
 
-    /* Converts the vision list into an array. */
-    float[] arr = new float[vision.size()];
+    return hit < 0 ? 0 : 1.0f / Math.abs(hit - from);
+  }
 
-    for (int i = 0; i < vision.size(); i++) {
-      arr[i] = vision.get(i);
+  private static int nextSetBit(BitSet line, int from, int step) {
+    return step > 0 ? line.nextSetBit(from + 1) : line.previousSetBit(from - 1);
+  }
+
+  /* 1 if the apple is a whole number of steps away in the direction, otherwise 0. The apple is
+  always within the grid, so it cannot be past the wall. An apple placed where the snake started is
+  cleared from the grid when the snake first moves, and can no longer be seen. */
+  private float appleVision(int x, int y, int dx, int dy) {
+    if (grid[apple] != APPLE) {
+      return 0;
     }
 
-    return arr;
+    int appleX = apple / height;
+    int appleY = apple % height;
+    int steps = dx != 0 ? (appleX - x) * dx : (appleY - y) * dy;
+
+    return steps > 0 && x + steps * dx == appleX && y + steps * dy == appleY ? 1.0f : 0;
   }
 
-  /* Returns true if the input vector is within the bounds of the grid. */
-  public boolean withinBounds(Vector2 pos) {
-    return pos.x <= width - 1 && pos.x >= 0 && pos.y <= height - 1 && pos.y >= 0;
+  /* Returns true if the position is within the bounds of the grid. */
+  public boolean withinBounds(int x, int y) {
+    return x <= width - 1 && x >= 0 && y <= height - 1 && y >= 0;
+  }
+
+  /* Returns the index of the position in the grid. Cells are ordered by column, then by row. */
+  public int cell(int x, int y) {
+    return x * height + y;
   }
 
   @Override
@@ -220,6 +368,11 @@ public class Level implements State {
     return new Level(width, height);
   }
 
+  @Override
+  public State reset(long seed) {
+    return new Level(width, height, seed);
+  }
+
   @Override
   public State deepCopy() {
     return this;
@@ -230,6 +383,37 @@ public class Level implements State {
     return State.sigmoid(x);
   }
 
+  /* Every node uses the table-based sigmoid, which is much cheaper than calling Math.exp. */
+  @Override
+  public ActivationFunction activationFunction(NodeType type) {
+    return ActivationFunction.FAST_SIGMOID;
+  }
+
+  /* Fills 'out' by walking the grid in each direction, as getGenomeInputs(float[]) did before it
+  looked the inputs up. The two must always agree, which tests check. */
+  void walkGenomeInputs(float[] out) {
+    for (int i = 0; i < LOOKING_DIRECTIONS.size(); i++) {
+      snakeLook(LOOKING_DIRECTIONS.get(i), out, i * VISION_LENGTH);
+    }
+  }
+
+  /* Views of the grid and the free cells, so tests can check they are kept up to date. */
+  boolean isEmpty(int cell) {
+    return grid[cell] == EMPTY;
+  }
+
+  int freeCellCount() {
+    return freeCellCount;
+  }
+
+  int freeCell(int index) {
+    return freeCells[index];
+  }
+
+  int freeCellIndex(int cell) {
+    return freeCellIndex[cell];
+  }
+
   public int width() {
     return width;
   }
@@ -237,10 +421,4 @@ public class Level implements State {
   public int height() {
     return height;
   }
-
-  private enum GridState {
-    SNAKE,
-    EMPTY,
-    APPLE
-  }
 }
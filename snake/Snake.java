@@ -1,43 +1,53 @@
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
 
 /* Snake holds all the information about the Snake, including its current position, location of all parts
-of its tail and whether it is still alive. */
+of its tail and whether it is still alive. Cells are stored as indexes into the level's grid (see
+Level.cell()). */
 public class Snake {
 
   /* By default, the snake moves right */
   private static final Vector2 DEFAULT_DIRECTION = Vector2.WEST;
 
   private final Level level;
-  private final List<Vector2> body;
-  private final Vector2 head;
-
-  private Vector2 direction;
+  /* A ring buffer of the cells taken up by the body, from the end of the tail at 'tail' to the
+  most recent head position. The body can never be longer than the number of cells in the grid. */
+  private final int[] body;
+  /* Marks every cell in 'body', so the snake can check if it has hit itself without a scan. */
+  private final boolean[] occupied;
+
+  private int tail;
+  private int length;
+  private int headX;
+  private int headY;
+  private int directionX;
+  private int directionY;
   private boolean dead;
 
-  public Snake(Level level) {
-    Random rng = new Random();
+  public Snake(Level level, Random rng) {
     this.level = level;
     /* This resets the snake's head to a random position at least 1 square away from the edges. */
-    this.head = new Vector2(rng.nextInt(level.width() - 1) + 1, rng.nextInt(level.height() - 1) + 1);
+    this.headX = rng.nextInt(level.width() - 1) + 1;
+    this.headY = rng.nextInt(level.height() - 1) + 1;
     this.dead = false;
-    this.body = new ArrayList<>();
-    this.body.add(new Vector2(head.x, head.y));
-    this.direction = DEFAULT_DIRECTION;
+    this.body = new int[level.width() * level.height()];
+    this.occupied = new boolean[body.length];
+    push(head());
+    point(DEFAULT_DIRECTION);
   }
 
   public int length() {
-    return body.size();
+    return length;
   }
 
   /* This method is executed every frame. 'direction' is updated externally and corresponds to the next
   direction the snake will move in. 'direction' is added to the location of the snake's head.
   It also checks if the snake has hit its tail or gone out of the bounds of the grid. */
   public void update() {
-    head.add(direction);
+    headX += directionX;
+    headY += directionY;
 
-    if (isTail(head) || !level.withinBounds(head)) {
+    /* The most recent body cell is where the head just was, so it can never be hit. */
+    if (!level.withinBounds(headX, headY) || occupied[head()]) {
       dead = true;
     }
   }
@@ -45,34 +55,30 @@ public class Snake {
   /* This method moves the snake by removing the last element in their tail and adding the location of the
   snake's head. */
   public void move() {
-    body.remove(0);
-    body.add(head.copy());
+    occupied[tail()] = false;
+    tail = (tail + 1) % body.length;
+    length--;
+    push(head());
   }
 
   /* This method extends the snake's body by adding the new position of the snake's head, without removing
   the end of its tail. */
-
   public void extend() {
-    body.add(head.copy());
+    push(head());
   }
-  /* Compares each part of the snake's tail with the new head position. If they are equal, the snake has
-  hit its tail. */
-
-  private boolean isTail(Vector2 vector) {
-    for (int i = 0; i < body.size() - 1; i++) {
-      Vector2 part = body.get(i);
-      if (vector.equals(part)) {
-        return true;
-      }
-    }
 
-    return false;
+  private void push(int cell) {
+    body[(tail + length) % body.length] = cell;
+    occupied[cell] = true;
+    length++;
   }
-  /* Updates the snake's direction so it now points in the new direction. */
 
+  /* Updates the snake's direction so it now points in the new direction. */
   public void point(Vector2 dir) {
-    direction = dir;
+    directionX = (int) dir.x;
+    directionY = (int) dir.y;
   }
+
   public void kill() {
     dead = true;
   }
@@ -81,11 +87,20 @@ public class Snake {
     return dead;
   }
 
-  public Vector2 tail() {
-    return body.get(0);
+  public int tail() {
+    return body[tail];
+  }
+
+  /* Only valid while the head is within the bounds of the grid. */
+  public int head() {
+    return level.cell(headX, headY);
+  }
+
+  public int headX() {
+    return headX;
   }
 
-  public Vector2 head() {
-    return head;
+  public int headY() {
+    return headY;
   }
 }
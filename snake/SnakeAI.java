@@ -1,14 +1,46 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.management.JMException;
+
 class SnakeAI {
 
-  private static final int GRID_WIDTH = 40;
-  private static final int GRID_HEIGHT = 40;
+  static final int GRID_WIDTH = 40;
+  static final int GRID_HEIGHT = 40;
 
   private static final int POPULATION_SIZE = 500;
   private static final int NUM_INPUTS = 24;
   private static final int NUM_OUTPUTS = 4;
+  /* Each genome plays several levels, so one lucky apple placement does not decide its fitness. */
+  private static final int EPISODES = 5;
+  private static final int CHECKPOINT_INTERVAL = 10;
+  private static final int WORKER_BATCH_SIZE = 25;
+
+  /* If a checkpoint file is given, training resumes from it when it exists, and a checkpoint is
+  written to it every CHECKPOINT_INTERVAL generations. If the snake.port property is set, episodes
+  are played by SnakeWorker processes connected to that port. */
+  public static void main(String[] args) throws IOException, JMException {
+    Level level = new Level(GRID_WIDTH, GRID_HEIGHT);
+    Population pop;
+
+    if (args.length > 0 && Files.exists(Path.of(args[0]))) {
+      pop = Population.load(Path.of(args[0]), level);
+    } else {
+      pop = new Population(POPULATION_SIZE, NUM_INPUTS, NUM_OUTPUTS, level);
+    }
 
-  public static void main(String[] args) {
-    Population pop = new Population(POPULATION_SIZE, NUM_INPUTS, NUM_OUTPUTS, new Level(GRID_WIDTH, GRID_HEIGHT));
+    pop.setEpisodes(EPISODES, FitnessAggregation.MEAN);
+    /* Generation timings can be watched live with JConsole or recorded with JFR. */
+    pop.getMetrics().register("snake");
+
+    if (args.length > 0) {
+      pop.setCheckpoints(Path.of(args[0]), CHECKPOINT_INTERVAL);
+    }
+
+    if (Integer.getInteger("snake.port") != null) {
+      pop.setCoordinator(
+          new EvaluationCoordinator(Integer.getInteger("snake.port"), WORKER_BATCH_SIZE));
+    }
 
     while (true) {
       pop.update();
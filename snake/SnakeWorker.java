@@ -0,0 +1,12 @@
+import java.io.IOException;
+
+/* Plays episodes for SnakeAI when it is run with the snake.port property. Takes the host and port
+that SnakeAI is listening on, and exits when SnakeAI does. */
+class SnakeWorker {
+
+  public static void main(String[] args) throws IOException {
+    Level level = new Level(SnakeAI.GRID_WIDTH, SnakeAI.GRID_HEIGHT);
+
+    EvaluationWorker.run(args[0], Integer.parseInt(args[1]), level);
+  }
+}
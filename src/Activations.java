@@ -0,0 +1,50 @@
+// The node values of one running network. The buffers are reused by every activation, so
+// activating a network allocates nothing. How the network is run is passed with each activation,
+// from the population's current settings.
+//
+// With no recurrent steps, each activation starts from zero and relaxes cycles until they
+// stabilise, giving up after a fixed number of iterations. Otherwise the node values are kept
+// between activations, and each activation propagates values a fixed number of steps through the
+// network, so cycles carry their activity from one activation to the next.
+class Activations {
+
+  private final float[] inputs;
+  private final float[] nodeValues;
+  private final float[] prevNodeValues;
+  private final float[] outputs;
+  private final Network.StateFunction stateFunction;
+
+  // Nodes that use the state's activation function apply that of 'state'.
+  public Activations(int nodeCount, int inputCount, int outputCount, State state) {
+    this.inputs = new float[inputCount];
+    this.nodeValues = new float[nodeCount];
+    this.prevNodeValues = new float[nodeCount];
+    this.outputs = new float[outputCount];
+    this.stateFunction = state::activate;
+  }
+
+  public int nodeCount() {
+    return nodeValues.length;
+  }
+
+  // Filled by the state before each activation.
+  float[] inputs() {
+    return inputs;
+  }
+
+  float[] nodeValues() {
+    return nodeValues;
+  }
+
+  float[] prevNodeValues() {
+    return prevNodeValues;
+  }
+
+  float[] outputs() {
+    return outputs;
+  }
+
+  Network.StateFunction stateFunction() {
+    return stateFunction;
+  }
+}
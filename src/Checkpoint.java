@@ -0,0 +1,238 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Saves a population between generations in a compact binary format, and restores it so that a
+// seeded run continues exactly as if it had never stopped. A checkpoint holds the population's
+// seed, generation and settings, every registered innovation in order, the species and the
+// genomes. States are not saved, as each generation starts from fresh states anyway.
+//
+// Genomes only use their own random streams while they are created, so those are not saved either.
+// Restored genomes are given new streams.
+class Checkpoint {
+
+  private static final int MAGIC = 0x4E454154; // "NEAT"
+  private static final int VERSION = 2;
+  // The fewest bytes each item of a counted list can take, a genome having no nodes or genes.
+  private static final int INNOVATION_BYTES = 8;
+  private static final int SPECIES_BYTES = 12;
+  static final int GENOME_BYTES = 20;
+  private static final int NODE_BYTES = 1;
+  private static final int GENE_BYTES = 17;
+
+  // Checkpoints are written one at a time in the order they were taken, away from the threads
+  // running evolution.
+  private static final ExecutorService WRITER =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+
+            return thread;
+          });
+
+  private Checkpoint() {}
+
+  // Encodes the population immediately, so it can carry on evolving while the file is written. The
+  // previous checkpoint at 'path' is only replaced once the new one is complete.
+  public static CompletableFuture<Path> writeAsync(Population population, Path path) {
+    byte[] checkpoint = encode(population);
+
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return write(checkpoint, path);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        },
+        WRITER);
+  }
+
+  public static Path write(byte[] checkpoint, Path path) throws IOException {
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+    Files.write(temporary, checkpoint);
+
+    return Files.move(
+        temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Reads the whole file at once rather than through a stream. It is not mapped, as a mapped file
+  // cannot be replaced by the next checkpoint on some platforms until it is garbage collected.
+  // Genomes are given states reset from 'state'.
+  public static Population read(Path path, State state) throws IOException {
+    return decode(ByteBuffer.wrap(Files.readAllBytes(path)), state);
+  }
+
+  static byte[] encode(Population population) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(population.getSeed());
+      out.writeInt(population.GENERATION_NUMBER);
+      out.writeInt(population.getRecurrentSteps());
+      out.writeInt(population.getMaxActivationIterations());
+      out.writeInt(population.getEpisodes());
+      out.writeByte(population.getAggregation().ordinal());
+      out.writeInt(population.getElites());
+
+      long[] innovations = population.getInnovations().toArray();
+      out.writeInt(innovations.length);
+
+      for (long gene : innovations) {
+        out.writeInt(InnovationRegistry.in(gene));
+        out.writeInt(InnovationRegistry.out(gene));
+      }
+
+      out.writeInt(population.speciesCount());
+
+      for (int i = 0; i < population.speciesCount(); i++) {
+        Species species = population.getSpecies(i);
+
+        out.writeFloat(species.getMaxFitness());
+        out.writeInt(species.getGenerationLastImproved());
+        out.writeInt(species.size());
+      }
+
+      out.writeInt(population.genomeCount());
+
+      for (int i = 0; i < population.genomeCount(); i++) {
+        writeGenome(population.getGenome(i), out);
+      }
+    } catch (IOException e) {
+      // Writing to memory cannot fail.
+      throw new UncheckedIOException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  // Genomes are also sent to evaluation workers in this form, see EvaluationCoordinator.
+  static void writeGenome(Genome genome, DataOutputStream out) throws IOException {
+    Genes genes = genome.getGenes();
+
+    out.writeInt(genome.INPUT_COUNT);
+    out.writeInt(genome.OUTPUT_COUNT);
+    out.writeInt(genome.getSpecies());
+    out.writeInt(genome.nodeCount());
+
+    for (int i = 0; i < genome.nodeCount(); i++) {
+      out.writeByte(genome.getNode(i).ordinal());
+    }
+
+    out.writeInt(genes.size());
+
+    for (int i = 0; i < genes.size(); i++) {
+      out.writeInt(genes.in(i));
+      out.writeInt(genes.out(i));
+      out.writeInt(genes.innovation(i));
+      out.writeFloat(genes.weight(i));
+      out.writeBoolean(genes.isEnabled(i));
+    }
+  }
+
+  static Population decode(ByteBuffer in, State state) throws IOException {
+    try {
+      if (in.getInt() != MAGIC) {
+        throw new IOException("Not a checkpoint");
+      }
+
+      int version = in.getInt();
+
+      if (version != VERSION) {
+        throw new IOException("Unsupported checkpoint version " + version);
+      }
+
+      long seed = in.getLong();
+      int generation = in.getInt();
+      int recurrentSteps = in.getInt();
+      int maxActivationIterations = in.getInt();
+      int episodes = in.getInt();
+      FitnessAggregation aggregation = FitnessAggregation.values()[in.get()];
+      int elites = in.getInt();
+
+      InnovationRegistry innovations = new InnovationRegistry();
+      int innovationCount = readCount(in, INNOVATION_BYTES);
+
+      for (int i = 0; i < innovationCount; i++) {
+        innovations.register(in.getInt(), in.getInt());
+      }
+
+      List<Species> species = new ArrayList<>();
+      int speciesCount = readCount(in, SPECIES_BYTES);
+
+      for (int i = 0; i < speciesCount; i++) {
+        species.add(new Species(in.getFloat(), in.getInt(), in.getInt()));
+      }
+
+      Population population =
+          new Population(readCount(in, GENOME_BYTES), seed, generation, innovations, species);
+      population.setRecurrentSteps(recurrentSteps);
+      population.setMaxActivationIterations(maxActivationIterations);
+      population.setEpisodes(episodes, aggregation);
+      population.setElites(elites);
+
+      for (int i = 0; i < population.genomeCount(); i++) {
+        population.setGenome(i, readGenome(in, state, population));
+      }
+
+      return population;
+    } catch (BufferUnderflowException
+        | IndexOutOfBoundsException
+        | NegativeArraySizeException e) {
+      throw new IOException("Truncated or corrupt checkpoint", e);
+    }
+  }
+
+  static Genome readGenome(ByteBuffer in, State state, Population population) {
+    int inputCount = in.getInt();
+    int outputCount = in.getInt();
+    int species = in.getInt();
+    NodeType[] nodes = new NodeType[readCount(in, NODE_BYTES)];
+
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = NodeType.values()[in.get()];
+    }
+
+    int geneCount = readCount(in, GENE_BYTES);
+    Genes genes = new Genes(geneCount);
+
+    for (int i = 0; i < geneCount; i++) {
+      genes.add(in.getInt(), in.getInt(), in.getInt(), in.getFloat(), in.get() != 0);
+    }
+
+    Genome genome =
+        new Genome(inputCount, outputCount, nodes, genes, state, new Random(), population);
+    genome.setSpecies(species);
+
+    return genome;
+  }
+
+  // Reads the number of items in a list whose items take at least 'bytes' bytes each. A count that
+  // the rest of the buffer could not hold is treated as the buffer running out, before anything is
+  // allocated for the items.
+  static int readCount(ByteBuffer in, int bytes) {
+    int count = in.getInt();
+
+    if (count < 0 || count > in.remaining() / bytes) {
+      throw new BufferUnderflowException();
+    }
+
+    return count;
+  }
+}
@@ -32,14 +32,7 @@ public class Connection {
   }
 
   public void setWeight(float weight) {
-    // Limits weights to the range -1.0 -> 1.0
-    if (weight > 1) {
-      weight = 1;
-    } else if (weight < -1) {
-      weight = -1;
-    }
-
-    this.weight = weight;
+    this.weight = Genes.clampWeight(weight);
   }
 
   public void enable() {
@@ -0,0 +1,291 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+// Plays a population's episodes on worker processes rather than in this JVM. Workers connect to the
+// coordinator over TCP, see EvaluationWorker. Each generation, the genomes are split into batches
+// which are sent to whichever workers are free, and the workers send back each genome's aggregated
+// score. Selection and speciation stay with the population.
+//
+// Every worker has up to PIPELINE_DEPTH batches in flight, so it receives its next batch while it
+// plays the current one. If a worker disconnects, or does not send back a batch's scores within the
+// worker timeout, it is dropped and the batches it had not finished are sent to the other workers.
+// Episodes are seeded, so the scores are the same as if they had been played locally.
+public final class EvaluationCoordinator implements Closeable {
+
+  static final int MAGIC = 0x4E455641; // "NEVA"
+  static final int VERSION = 1;
+  private static final int PIPELINE_DEPTH = 2;
+  private static final long DEFAULT_WORKER_TIMEOUT_MINUTES = 10;
+
+  private final ServerSocket serverSocket;
+  private final int batchSize;
+  private final int workerTimeoutMillis;
+  // Batches waiting for a worker. Batches taken back from a worker that has gone go to the front.
+  private final LinkedBlockingDeque<Batch> pending = new LinkedBlockingDeque<>();
+  private final List<Socket> workers = new ArrayList<>();
+  private final List<Thread> threads = new ArrayList<>();
+  private int nextBatchId;
+  private volatile boolean closed;
+
+  // Listens for workers on 'port', or on any free port if it is zero. Each batch holds up to
+  // 'batchSize' genomes.
+  public EvaluationCoordinator(int port, int batchSize) throws IOException {
+    this(port, batchSize, DEFAULT_WORKER_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+  }
+
+  // Workers that take longer than the timeout to play a batch are treated as if they had gone, so
+  // it must allow for the slowest batch.
+  public EvaluationCoordinator(int port, int batchSize, long workerTimeout, TimeUnit unit)
+      throws IOException {
+    assert batchSize > 0;
+    assert workerTimeout > 0;
+
+    this.serverSocket = new ServerSocket(port);
+    this.batchSize = batchSize;
+    this.workerTimeoutMillis = (int) Math.min(unit.toMillis(workerTimeout), Integer.MAX_VALUE);
+
+    startThread(this::acceptWorkers, "evaluation-coordinator");
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public synchronized int workerCount() {
+    return workers.size();
+  }
+
+  // Waits until at least 'count' workers are connected, returning false if they are not connected
+  // before the timeout.
+  public synchronized boolean awaitWorkers(int count, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    while (workers.size() < count) {
+      long remaining = deadline - System.nanoTime();
+
+      if (remaining <= 0) {
+        return false;
+      }
+
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+
+    return true;
+  }
+
+  // Returns the score of every genome in the population over the episodes played from 'seeds',
+  // aggregated with the population's aggregation.
+  float[] evaluate(Population population, long[] seeds) {
+    float[] scores = new float[population.genomeCount()];
+    int batchCount = (scores.length + batchSize - 1) / batchSize;
+    CountDownLatch remaining = new CountDownLatch(batchCount);
+
+    for (int start = 0; start < scores.length; start += batchSize) {
+      int count = Math.min(batchSize, scores.length - start);
+      int id = nextBatchId++;
+      byte[] bytes = encode(id, population, start, count, seeds);
+
+      pending.add(new Batch(id, start, count, bytes, scores, remaining));
+    }
+
+    try {
+      remaining.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for workers", e);
+    }
+
+    return scores;
+  }
+
+  // Batches are sent as a length followed by the batch's id, the population's settings, the
+  // episode seeds and the genomes, in the same form as in checkpoints.
+  static byte[] encode(int id, Population population, int start, int count, long[] seeds) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(id);
+      out.writeInt(population.getRecurrentSteps());
+      out.writeInt(population.getMaxActivationIterations());
+      out.writeByte(population.getAggregation().ordinal());
+      out.writeInt(seeds.length);
+
+      for (long seed : seeds) {
+        out.writeLong(seed);
+      }
+
+      out.writeInt(count);
+
+      for (int i = start; i < start + count; i++) {
+        Checkpoint.writeGenome(population.getGenome(i), out);
+      }
+    } catch (IOException e) {
+      // Writing to memory cannot fail.
+      throw new UncheckedIOException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  private void acceptWorkers() {
+    while (!closed) {
+      try {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(workerTimeoutMillis);
+
+        startThread(() -> serve(socket), "evaluation-worker-" + socket.getRemoteSocketAddress());
+      } catch (IOException e) {
+        if (!closed) {
+          System.err.println("Could not accept evaluation worker: " + e);
+        }
+      }
+    }
+  }
+
+  // Sends batches to a single worker and reads back their scores, until the worker disconnects or
+  // times out, or the coordinator is closed.
+  private void serve(Socket socket) {
+    Deque<Batch> inFlight = new ArrayDeque<>();
+
+    try (socket) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a compatible evaluation worker");
+      }
+
+      addWorker(socket);
+
+      while (!closed) {
+        if (inFlight.isEmpty()) {
+          send(pending.take(), inFlight, out);
+        }
+
+        Batch next;
+
+        while (inFlight.size() < PIPELINE_DEPTH && (next = pending.poll()) != null) {
+          send(next, inFlight, out);
+        }
+
+        out.flush();
+        receive(inFlight.peekFirst(), in);
+        inFlight.removeFirst();
+      }
+    } catch (IOException e) {
+      if (!closed) {
+        System.err.println("Lost evaluation worker " + socket.getRemoteSocketAddress() + ": " + e);
+      }
+    } catch (InterruptedException e) {
+      // The coordinator has been closed.
+    } finally {
+      // The worker is removed first, so it has gone by the time another worker finishes its
+      // batches and the generation's evaluation returns.
+      removeWorker(socket);
+
+      // Another worker plays whatever this worker had not finished.
+      while (!inFlight.isEmpty()) {
+        pending.addFirst(inFlight.removeLast());
+      }
+    }
+  }
+
+  private static void send(Batch batch, Deque<Batch> inFlight, DataOutputStream out)
+      throws IOException {
+    // The batch is in flight before it is written, so it is not lost if writing fails.
+    inFlight.add(batch);
+    out.writeInt(batch.bytes.length);
+    out.write(batch.bytes);
+  }
+
+  private static void receive(Batch batch, DataInputStream in) throws IOException {
+    if (in.readInt() != batch.id || in.readInt() != batch.count) {
+      throw new IOException("Unexpected scores from worker");
+    }
+
+    float[] scores = new float[batch.count];
+
+    for (int i = 0; i < batch.count; i++) {
+      scores[i] = in.readFloat();
+    }
+
+    System.arraycopy(scores, 0, batch.scores, batch.start, batch.count);
+    batch.remaining.countDown();
+  }
+
+  private synchronized void addWorker(Socket socket) {
+    workers.add(socket);
+    notifyAll();
+  }
+
+  // Called by the worker's thread as it exits.
+  private synchronized void removeWorker(Socket socket) {
+    workers.remove(socket);
+    threads.remove(Thread.currentThread());
+  }
+
+  private synchronized void startThread(Runnable task, String name) {
+    Thread thread = new Thread(task, name);
+    thread.setDaemon(true);
+    threads.add(thread);
+    thread.start();
+  }
+
+  // Disconnects every worker, which makes them exit. Batches that are still waiting are never
+  // played.
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    serverSocket.close();
+
+    for (Socket worker : workers) {
+      try {
+        worker.close();
+      } catch (SocketException e) {
+        // The worker has already gone.
+      }
+    }
+
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+  }
+
+  private static final class Batch {
+    final int id;
+    final int start;
+    final int count;
+    final byte[] bytes;
+    // Shared by every batch of a generation.
+    final float[] scores;
+    final CountDownLatch remaining;
+
+    Batch(int id, int start, int count, byte[] bytes, float[] scores, CountDownLatch remaining) {
+      this.id = id;
+      this.start = start;
+      this.count = count;
+      this.bytes = bytes;
+      this.scores = scores;
+      this.remaining = remaining;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+
+// Plays episodes for an EvaluationCoordinator, usually in a process of its own. A worker connects
+// to the coordinator and plays each batch of genomes it is sent on the common pool, returning
+// their scores, until the coordinator disconnects.
+public final class EvaluationWorker {
+
+  private EvaluationWorker() {}
+
+  // Genomes are given states reset from 'state', which must play the same episodes from the same
+  // seeds as the coordinator's state.
+  public static void run(String host, int port, State state) throws IOException {
+    // Genomes only need a population for its settings, which are sent with every batch.
+    Population population = new Population(0, 0, 0, new InnovationRegistry(), new ArrayList<>());
+
+    try (Socket socket = new Socket(host, port)) {
+      socket.setTcpNoDelay(true);
+
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+      out.writeInt(EvaluationCoordinator.MAGIC);
+      out.writeInt(EvaluationCoordinator.VERSION);
+      out.flush();
+
+      while (true) {
+        byte[] batch;
+
+        try {
+          batch = new byte[in.readInt()];
+        } catch (EOFException e) {
+          return;
+        }
+
+        in.readFully(batch);
+        play(ByteBuffer.wrap(batch), state, population, out);
+        out.flush();
+      }
+    }
+  }
+
+  // Plays a batch encoded by EvaluationCoordinator.encode and writes its scores.
+  private static void play(
+      ByteBuffer batch, State state, Population population, DataOutputStream out)
+      throws IOException {
+    Genome[] genomes;
+    long[] seeds;
+    FitnessAggregation aggregation;
+    int id;
+
+    try {
+      id = batch.getInt();
+      population.setRecurrentSteps(batch.getInt());
+      population.setMaxActivationIterations(batch.getInt());
+      aggregation = FitnessAggregation.values()[batch.get()];
+      seeds = new long[Checkpoint.readCount(batch, Long.BYTES)];
+
+      for (int i = 0; i < seeds.length; i++) {
+        seeds[i] = batch.getLong();
+      }
+
+      genomes = new Genome[Checkpoint.readCount(batch, Checkpoint.GENOME_BYTES)];
+
+      for (int i = 0; i < genomes.length; i++) {
+        genomes[i] = Checkpoint.readGenome(batch, state, population);
+      }
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("Truncated or corrupt batch", e);
+    }
+
+    float[][] episodeScores = new float[genomes.length][seeds.length];
+
+    IntStream.range(0, genomes.length * seeds.length)
+        .parallel()
+        .forEach(
+            task ->
+                episodeScores[task / seeds.length][task % seeds.length] =
+                    genomes[task / seeds.length].runEpisode(seeds[task % seeds.length]));
+
+    out.writeInt(id);
+    out.writeInt(genomes.length);
+
+    for (float[] scores : episodeScores) {
+      out.writeFloat(aggregation.aggregate(scores));
+    }
+  }
+}
@@ -0,0 +1,41 @@
+import java.util.Arrays;
+
+// Combines the fitness a genome scored over several episodes into a single fitness.
+public enum FitnessAggregation {
+  MEAN,
+  // Ignores a few lucky or unlucky episodes.
+  MEDIAN,
+  // Rewards genomes that do well in every episode.
+  MIN;
+
+  // May reorder 'scores'.
+  public float aggregate(float[] scores) {
+    assert scores.length > 0;
+
+    switch (this) {
+      case MEAN:
+        double sum = 0;
+
+        for (float score : scores) {
+          sum += score;
+        }
+
+        return (float) (sum / scores.length);
+      case MEDIAN:
+        Arrays.sort(scores);
+        int middle = scores.length / 2;
+
+        return scores.length % 2 == 1
+            ? scores[middle]
+            : (scores[middle - 1] + scores[middle]) / 2;
+      default:
+        float min = scores[0];
+
+        for (float score : scores) {
+          min = Math.min(min, score);
+        }
+
+        return min;
+    }
+  }
+}
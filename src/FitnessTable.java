@@ -0,0 +1,50 @@
+import java.util.SplittableRandom;
+
+// A roulette wheel over a fixed group of genomes. The cumulative fitness is computed once when the
+// table is built, so each pick is a binary search, and a table can be shared between threads.
+class FitnessTable {
+
+  private final Genome[] genomes;
+  private final double[] cumulativeFitness;
+
+  public FitnessTable(Genome[] genomes) {
+    assert genomes.length > 0;
+
+    this.genomes = genomes;
+    this.cumulativeFitness = new double[genomes.length];
+
+    double total = 0;
+
+    for (int i = 0; i < genomes.length; i++) {
+      total += genomes[i].getFitness();
+      cumulativeFitness[i] = total;
+    }
+  }
+
+  // Picks a genome with probability proportional to its fitness, or uniformly if no genome in the
+  // table has any fitness.
+  public Genome sample(SplittableRandom rng) {
+    double total = cumulativeFitness[cumulativeFitness.length - 1];
+
+    if (total <= 0) {
+      return genomes[rng.nextInt(genomes.length)];
+    }
+
+    double target = rng.nextDouble() * total;
+    int low = 0;
+    int high = cumulativeFitness.length - 1;
+
+    // Finds the first genome whose cumulative fitness exceeds the target.
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (cumulativeFitness[mid] > target) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+
+    return genomes[low];
+  }
+}
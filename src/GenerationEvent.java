@@ -0,0 +1,56 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Recorded by JFR at the end of every generation. See GenerationStats for what each field means.
+@Name("neat.Generation")
+@Label("Generation")
+@Category("NEAT")
+@Description("The time a population spent on each phase of a generation")
+class GenerationEvent extends jdk.jfr.Event {
+
+  @Label("Generation")
+  int generation;
+
+  @Label("Simulate")
+  @Timespan
+  long simulate;
+
+  @Label("Evaluate")
+  @Timespan
+  long evaluate;
+
+  @Label("Select")
+  @Timespan
+  long select;
+
+  @Label("Reproduce")
+  @Timespan
+  long reproduce;
+
+  @Label("Speciate")
+  @Timespan
+  long speciate;
+
+  @Label("Ticks")
+  long ticks;
+
+  @Label("Updates")
+  long updates;
+
+  @Label("Updates Per Second")
+  double updatesPerSecond;
+
+  @Label("Mean Active Genomes")
+  double meanActiveGenomes;
+
+  @Label("Allocated")
+  @DataAmount
+  long allocated;
+
+  @Label("Mean Fitness")
+  float meanFitness;
+}
@@ -0,0 +1,98 @@
+// How one generation of a population spent its time, as measured by PopulationMetrics.
+public final class GenerationStats {
+
+  // The parts of a generation that are timed separately.
+  public enum Phase {
+    // Updating states, either tick by tick or as whole episodes.
+    SIMULATE,
+    // Turning scores into fitness, including stagnation.
+    EVALUATE,
+    // Building the tables parents are selected from.
+    SELECT,
+    // Creating offspring through crossover and mutation, and numbering their innovations.
+    REPRODUCE,
+    // Choosing representatives and placing offspring in species.
+    SPECIATE
+  }
+
+  private final int generation;
+  private final long[] phaseNanos;
+  private final long totalNanos;
+  private final long ticks;
+  private final long updates;
+  private final long allocatedBytes;
+  private final float meanFitness;
+
+  GenerationStats(
+      int generation,
+      long[] phaseNanos,
+      long totalNanos,
+      long ticks,
+      long updates,
+      long allocatedBytes,
+      float meanFitness) {
+    assert phaseNanos.length == Phase.values().length;
+
+    this.generation = generation;
+    this.phaseNanos = phaseNanos.clone();
+    this.totalNanos = totalNanos;
+    this.ticks = ticks;
+    this.updates = updates;
+    this.allocatedBytes = allocatedBytes;
+    this.meanFitness = meanFitness;
+  }
+
+  public int generation() {
+    return generation;
+  }
+
+  public long nanos(Phase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  // The time from the end of the previous generation to the end of this one.
+  public long totalNanos() {
+    return totalNanos;
+  }
+
+  // The number of times every remaining genome was updated together. Genomes that play their own
+  // episodes are not updated in ticks, so this is zero for them.
+  public long ticks() {
+    return ticks;
+  }
+
+  // The number of times any genome's state was updated.
+  public long updates() {
+    return updates;
+  }
+
+  public double ticksPerSecond() {
+    return perSecond(ticks);
+  }
+
+  public double updatesPerSecond() {
+    return perSecond(updates);
+  }
+
+  // The mean number of genomes that had not yet ended in each tick, or NaN without any ticks.
+  public double meanActiveGenomes() {
+    return ticks == 0 ? Double.NaN : (double) updates / ticks;
+  }
+
+  // The bytes allocated during the generation by the platform threads alive at its end, or -1 if
+  // the JVM does not measure allocation. Threads that stopped during the generation and virtual
+  // threads are not counted, so this is a lower bound that is never negative.
+  public long allocatedBytes() {
+    return allocatedBytes;
+  }
+
+  public float meanFitness() {
+    return meanFitness;
+  }
+
+  private double perSecond(long count) {
+    long nanos = nanos(Phase.SIMULATE);
+
+    return nanos == 0 ? 0 : count * 1e9 / nanos;
+  }
+}
@@ -0,0 +1,270 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+// The connection genes of a genome, stored as parallel primitive arrays so that a gene costs a few
+// array slots rather than several objects. Genes are kept in order of innovation number, so two
+// genomes can be aligned by walking their genes side by side.
+//
+// The pairs of nodes that are connected are also kept in a hash set, so checking for a connection
+// costs the same however many genes there are.
+class Genes {
+
+  // Sorts after every real innovation number, so genes waiting for a number stay at the end.
+  public static final int PENDING_INNOVATION = Integer.MAX_VALUE;
+
+  private static final int DEFAULT_CAPACITY = 16;
+  // Marks an unused slot in the connected pairs. Node indices are never negative, so no pair packs
+  // to this.
+  private static final long NO_PAIR = -1;
+
+  private int[] in;
+  private int[] out;
+  private int[] innovation;
+  private float[] weight;
+  private final BitSet enabled;
+  // An open-addressing set of every connected pair, packed by pair(), kept at most half full.
+  private long[] pairs;
+  private int pairCount;
+
+  private int size;
+
+  public Genes(int capacity) {
+    capacity = Math.max(capacity, 1);
+
+    this.in = new int[capacity];
+    this.out = new int[capacity];
+    this.innovation = new int[capacity];
+    this.weight = new float[capacity];
+    this.enabled = new BitSet(capacity);
+    this.pairs = newPairs(capacity);
+    this.pairCount = 0;
+    this.size = 0;
+  }
+
+  public Genes() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  private Genes(Genes genes) {
+    this.in = Arrays.copyOf(genes.in, genes.size);
+    this.out = Arrays.copyOf(genes.out, genes.size);
+    this.innovation = Arrays.copyOf(genes.innovation, genes.size);
+    this.weight = Arrays.copyOf(genes.weight, genes.size);
+    this.enabled = (BitSet) genes.enabled.clone();
+    this.pairs = genes.pairs.clone();
+    this.pairCount = genes.pairCount;
+    this.size = genes.size;
+  }
+
+  public Genes copy() {
+    return new Genes(this);
+  }
+
+  // Inserts a gene so that genes stay ordered by innovation number, and returns its index. New
+  // innovations have the highest numbers, so this is normally an append.
+  public int add(int in, int out, int innovation, float weight, boolean enabled) {
+    assert in >= 0;
+    assert out >= 0;
+
+    if (size == this.in.length) {
+      grow();
+    }
+
+    int index = size;
+
+    while (index > 0 && this.innovation[index - 1] > innovation) {
+      index--;
+    }
+
+    if (index < size) {
+      int moved = size - index;
+
+      System.arraycopy(this.in, index, this.in, index + 1, moved);
+      System.arraycopy(this.out, index, this.out, index + 1, moved);
+      System.arraycopy(this.innovation, index, this.innovation, index + 1, moved);
+      System.arraycopy(this.weight, index, this.weight, index + 1, moved);
+
+      for (int i = size; i > index; i--) {
+        this.enabled.set(i, this.enabled.get(i - 1));
+      }
+    }
+
+    this.in[index] = in;
+    this.out[index] = out;
+    this.innovation[index] = innovation;
+    this.weight[index] = clampWeight(weight);
+    this.enabled.set(index, enabled);
+    size++;
+    addPair(pair(in, out));
+
+    return index;
+  }
+
+  private void grow() {
+    int capacity = Math.max(this.in.length * 2, DEFAULT_CAPACITY);
+
+    in = Arrays.copyOf(in, capacity);
+    out = Arrays.copyOf(out, capacity);
+    innovation = Arrays.copyOf(innovation, capacity);
+    weight = Arrays.copyOf(weight, capacity);
+  }
+
+  // Restores innovation order to the genes from 'from' onwards with an insertion sort, which is
+  // cheap for the few genes that are added in one generation.
+  public void sortFrom(int from) {
+    for (int i = from + 1; i < size; i++) {
+      for (int j = i; j > from && innovation[j - 1] > innovation[j]; j--) {
+        swap(j - 1, j);
+      }
+    }
+  }
+
+  private void swap(int i, int j) {
+    int tempIn = in[i];
+    int tempOut = out[i];
+    int tempInnovation = innovation[i];
+    float tempWeight = weight[i];
+    boolean tempEnabled = enabled.get(i);
+
+    in[i] = in[j];
+    out[i] = out[j];
+    innovation[i] = innovation[j];
+    weight[i] = weight[j];
+    enabled.set(i, enabled.get(j));
+
+    in[j] = tempIn;
+    out[j] = tempOut;
+    innovation[j] = tempInnovation;
+    weight[j] = tempWeight;
+    enabled.set(j, tempEnabled);
+  }
+
+  // Returns the index of the gene connecting 'in' to 'out', or -1 if there is no such gene.
+  public int indexOf(int in, int out) {
+    if (!contains(in, out)) {
+      return -1;
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (this.in[i] == in && this.out[i] == out) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  // Returns true if a gene connects 'in' to 'out', whether or not it is enabled.
+  public boolean contains(int in, int out) {
+    long pair = pair(in, out);
+
+    return pairs[freeSlot(pair, pairs)] == pair;
+  }
+
+  // The number of different pairs of nodes that the genes connect.
+  public int connectedPairs() {
+    return pairCount;
+  }
+
+  private void addPair(long pair) {
+    if ((pairCount + 1) * 2 > pairs.length) {
+      long[] old = pairs;
+
+      pairs = new long[old.length * 2];
+      Arrays.fill(pairs, NO_PAIR);
+
+      for (long existing : old) {
+        if (existing != NO_PAIR) {
+          pairs[freeSlot(existing, pairs)] = existing;
+        }
+      }
+    }
+
+    int slot = freeSlot(pair, pairs);
+
+    if (pairs[slot] == NO_PAIR) {
+      pairs[slot] = pair;
+      pairCount++;
+    }
+  }
+
+  // Returns the slot holding 'pair', or the empty slot where it belongs.
+  private static int freeSlot(long pair, long[] pairs) {
+    int slot = slot(pair, pairs);
+
+    while (pairs[slot] != NO_PAIR && pairs[slot] != pair) {
+      slot = (slot + 1) & (pairs.length - 1);
+    }
+
+    return slot;
+  }
+
+  private static int slot(long pair, long[] pairs) {
+    return (int) ((pair * 0x9E3779B97F4A7C15L) >>> 32) & (pairs.length - 1);
+  }
+
+  private static long pair(int in, int out) {
+    return ((long) in << 32) | out;
+  }
+
+  // A power of two with room for 'capacity' pairs at most half full.
+  private static long[] newPairs(int capacity) {
+    int length = DEFAULT_CAPACITY;
+
+    while (length < capacity * 2) {
+      length *= 2;
+    }
+
+    long[] pairs = new long[length];
+    Arrays.fill(pairs, NO_PAIR);
+
+    return pairs;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int in(int index) {
+    return in[index];
+  }
+
+  public int out(int index) {
+    return out[index];
+  }
+
+  public int innovation(int index) {
+    return innovation[index];
+  }
+
+  public void setInnovation(int index, int innovation) {
+    this.innovation[index] = innovation;
+  }
+
+  public float weight(int index) {
+    return weight[index];
+  }
+
+  public void setWeight(int index, float weight) {
+    this.weight[index] = clampWeight(weight);
+  }
+
+  public boolean isEnabled(int index) {
+    return enabled.get(index);
+  }
+
+  public void setEnabled(int index, boolean enabled) {
+    this.enabled.set(index, enabled);
+  }
+
+  // Limits weights to the range -1.0 -> 1.0
+  public static float clampWeight(float weight) {
+    if (weight > 1) {
+      return 1;
+    } else if (weight < -1) {
+      return -1;
+    }
+
+    return weight;
+  }
+}
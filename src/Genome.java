@@ -1,6 +1,6 @@
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Random;
 
 class Genome {
@@ -13,17 +13,23 @@ class Genome {
   private static final float UNIFORM_PERTURBATION_RATE = 1f;
   private static final float ADD_NEW_NODE_RATE = 0.03f;
   private static final float ADD_NEW_CONNECTION_RATE = 0.05f;
-  // Decreasing this may dramatically affect performance.
-  private static final float ACTIVATION_STABILISATION_THRESHOLD = 0.02f;
+  private static final int MAX_CONNECTION_ATTEMPTS = 32;
 
   private final State state;
-  private final List<NodeType> nodes;
-  private final List<Connection> connections;
+  private final Genes genes;
   private final Random rng;
   private final Population population;
 
+  private NodeType[] nodes;
+  private int nodeCount;
+  // Compiled lazily from the genes and discarded whenever they change.
+  private Phenotype phenotype;
+  private Activations activations;
   private int species;
   private float fitness;
+  // Set when the genome's score is already known, so that it does not need to play.
+  private boolean scoreKnown;
+  private float knownScore;
 
   public final int INPUT_COUNT;
   public final int OUTPUT_COUNT;
@@ -32,8 +38,9 @@ class Genome {
     this.INPUT_COUNT = inputCount;
     this.OUTPUT_COUNT = outputCount;
     this.state = state.reset().deepCopy();
-    this.nodes = new ArrayList<>();
-    this.connections = new ArrayList<>();
+    this.nodes = new NodeType[inputCount + outputCount];
+    this.nodeCount = 0;
+    this.genes = new Genes(inputCount * outputCount);
     this.rng = rng;
     this.fitness = 0;
     this.population = population;
@@ -45,19 +52,42 @@ class Genome {
   public Genome(
       int inputCount,
       int outputCount,
-      List<Connection> connections,
+      Genes genes,
       Genome parent,
+      Random rng,
       Population population) {
     this.INPUT_COUNT = inputCount;
     this.OUTPUT_COUNT = outputCount;
     this.state = parent.getState().reset().deepCopy();
-    this.connections = connections;
-    this.nodes = new ArrayList<>();
-    this.rng = new Random();
+    this.genes = genes;
+    this.nodes = Arrays.copyOf(parent.nodes, parent.nodeCount);
+    this.nodeCount = parent.nodeCount;
+    this.rng = rng;
+    this.fitness = 0;
+    this.population = population;
+
+    setSpecies(DEFAULT_SPECIES);
+  }
+
+  // Restores a genome from its nodes and genes, as read from a checkpoint.
+  Genome(
+      int inputCount,
+      int outputCount,
+      NodeType[] nodes,
+      Genes genes,
+      State state,
+      Random rng,
+      Population population) {
+    this.INPUT_COUNT = inputCount;
+    this.OUTPUT_COUNT = outputCount;
+    this.state = state.reset().deepCopy();
+    this.genes = genes;
+    this.nodes = nodes;
+    this.nodeCount = nodes.length;
+    this.rng = rng;
     this.fitness = 0;
     this.population = population;
 
-    nodes.addAll(parent.getNodes());
     setSpecies(DEFAULT_SPECIES);
   }
 
@@ -65,118 +95,226 @@ class Genome {
     this(inputCount, outputCount, state, new Random(), population);
   }
 
+  // Returns an unevaluated copy of this genome that mutates using 'rng'.
+  public Genome copy(Random rng) {
+    Genome copy = new Genome(INPUT_COUNT, OUTPUT_COUNT, genes.copy(), this, rng, population);
+    copy.setSpecies(species);
+
+    return copy;
+  }
+
+  // Updates the state until it ends, and returns the number of updates it took.
+  long play() {
+    long updates = 0;
+
+    while (!hasEnded()) {
+      updateState();
+      updates++;
+    }
+
+    return updates;
+  }
+
   public void updateState() {
-    state.update(activate(state.getGenomeInputs()));
+    float[] inputs = activations().inputs();
+
+    state.getGenomeInputs(inputs);
+    state.update(activate(inputs));
   }
 
-  private float[] activate(float[] inputs) {
+  // The returned array is reused by the next activation.
+  float[] activate(float[] inputs) {
     assert inputs.length == INPUT_COUNT;
 
-    float[] nodeValues = new float[nodeCount()];
-    float[] prevNodeValues = new float[nodeCount()];
+    return phenotype()
+        .activate(
+            inputs,
+            activations(),
+            population.getRecurrentSteps(),
+            population.getMaxActivationIterations());
+  }
 
-    for (int i = 0; i < inputs.length; i++) {
-      nodeValues[i] = inputs[i];
-      prevNodeValues[i] = inputs[i];
-    }
+  // Returns a copy of this genome's network that runs without the genome, as it would with the
+  // population's current settings. Every node must use one of the built-in activation functions
+  // rather than the state's.
+  public Network toNetwork() {
+    return phenotype()
+        .toNetwork(population.getRecurrentSteps(), population.getMaxActivationIterations());
+  }
 
-    do {
-      for (int i = INPUT_COUNT; i < nodeCount(); i++) {
-        prevNodeValues[i] = nodeValues[i];
-      }
+  public void export(Path path) throws IOException {
+    toNetwork().save(path);
+  }
 
-      for (int i = INPUT_COUNT; i < nodeCount(); i++) {
-        nodeValues[i] = 0;
+  // Plays a whole episode on a fresh state seeded with 'seed', and returns the fitness it scored.
+  // The episode has its own node values and leaves the genome's state untouched, so several
+  // episodes of one genome can run at once.
+  float runEpisode(long seed) {
+    State episode = state.reset(seed).deepCopy();
+    Phenotype phenotype = phenotype();
+    Activations activations = new Activations(nodeCount, INPUT_COUNT, OUTPUT_COUNT, episode);
+    float[] inputs = activations.inputs();
+    int recurrentSteps = population.getRecurrentSteps();
+    int maxIterations = population.getMaxActivationIterations();
 
-        for (Connection connection : connections) {
-          if (!connection.isDisabled() && connection.getOut() == i) {
-            nodeValues[i] += prevNodeValues[connection.getIn()] * connection.getWeight();
-          }
-        }
+    long updates = 0;
 
-        nodeValues[i] = state.activate(nodeValues[i]);
-      }
-    } while (!isStabilised(nodeValues, prevNodeValues));
+    while (!episode.hasEnded()) {
+      episode.getGenomeInputs(inputs);
+      episode.update(phenotype.activate(inputs, activations, recurrentSteps, maxIterations));
+      updates++;
+    }
 
-    float[] outputs = new float[OUTPUT_COUNT];
+    population.getMetrics().recordUpdates(updates);
 
-    for (int i = INPUT_COUNT; i < INPUT_COUNT + OUTPUT_COUNT; i++) {
-      outputs[i - INPUT_COUNT] = nodeValues[i];
-    }
+    return episode.evaluateFitness();
+  }
 
-    return outputs;
+  // Evaluates the network once for each row of 'inputs', writing the outputs to the same row of
+  // 'outputs'. This is much faster than calling activate for each row, and leaves the genome's
+  // state untouched.
+  public void activate(float[][] inputs, float[][] outputs) {
+    phenotype().activate(inputs, outputs, state, population.getMaxActivationIterations());
   }
 
-  private boolean isStabilised(float[] nodeValues, float[] prevNodeValues) {
-    assert nodeValues.length == prevNodeValues.length;
+  private Activations activations() {
+    if (activations == null || activations.nodeCount() != nodeCount) {
+      activations = new Activations(nodeCount, INPUT_COUNT, OUTPUT_COUNT, state);
+    }
 
-    float totalRelDiff = 0;
+    return activations;
+  }
 
-    for (int i = INPUT_COUNT; i < nodeValues.length; i++) {
-      if (nodeValues[i] != prevNodeValues[i]) {
-        totalRelDiff += Math.abs((nodeValues[i] - prevNodeValues[i]) / prevNodeValues[i]);
+  // Phenotypes are immutable, so concurrent episodes can share one. If they race to compile it,
+  // each compiles an identical copy.
+  private Phenotype phenotype() {
+    if (phenotype == null) {
+      ActivationFunction[] functions = new ActivationFunction[nodeCount];
+
+      for (int i = 0; i < nodeCount; i++) {
+        functions[i] = state.activationFunction(nodes[i]);
       }
+
+      phenotype = new Phenotype(INPUT_COUNT, OUTPUT_COUNT, functions, genes);
     }
 
-    return totalRelDiff < ACTIVATION_STABILISATION_THRESHOLD;
+    return phenotype;
   }
 
-  public float compatibilityDistance(Genome genome, Map<ConnectionGene, Integer> innovations) {
+  // Both gene lists are ordered by innovation number, so matching, disjoint and excess genes can be
+  // counted in a single merge of the two lists.
+  public float compatibilityDistance(Genome genome) {
+    Genes other = genome.genes;
+    int i = 0;
+    int j = 0;
     int matchingConns = 0;
-    int totalWeightDiff = 0;
-
-    for (Connection conn1 : connections) {
-      for (Connection conn2 : genome.connections) {
-        int innovationNum1 = innovations.get(conn1.getGene());
-        int innovationNum2 = innovations.get(conn2.getGene());
-
-        if (innovationNum1 == innovationNum2) {
-          matchingConns++;
-          totalWeightDiff += Math.abs(conn1.getWeight() - conn2.getWeight());
-        }
+    int disjointConns = 0;
+    float totalWeightDiff = 0;
+
+    while (i < genes.size() && j < other.size()) {
+      int innovationNum1 = genes.innovation(i);
+      int innovationNum2 = other.innovation(j);
+
+      if (innovationNum1 == innovationNum2) {
+        matchingConns++;
+        totalWeightDiff += Math.abs(genes.weight(i) - other.weight(j));
+        i++;
+        j++;
+      } else if (innovationNum1 < innovationNum2) {
+        disjointConns++;
+        i++;
+      } else {
+        disjointConns++;
+        j++;
       }
     }
 
-    int excessConns = numberOfExcessConnections(genome, innovations);
-    int disjointConns1 = connections.size() - excessConns - matchingConns;
-    int disjointConns2 = genome.connections.size() - excessConns - matchingConns;
-    int disjointConns = disjointConns1 + disjointConns2;
-    float avgWeightDiff = (float) totalWeightDiff / (float) matchingConns;
+    // Any genes left over are newer than every gene in the other genome.
+    int excessConns = (genes.size() - i) + (other.size() - j);
+    float avgWeightDiff = matchingConns == 0 ? 0 : totalWeightDiff / matchingConns;
 
-    float maxGeneCount = Math.max(connections.size(), genome.connections.size());
+    float maxGeneCount = Math.max(genes.size(), other.size());
     maxGeneCount = maxGeneCount < 20 ? 1 : maxGeneCount;
 
-    return (EXCESS_COEFFICIENT * excessConns + DISJOINT_COEFFICIENT * disjointConns)
-        / (maxGeneCount + WEIGHT_DIFF_COEFFICIENT * avgWeightDiff);
+    return (EXCESS_COEFFICIENT * excessConns + DISJOINT_COEFFICIENT * disjointConns) / maxGeneCount
+        + WEIGHT_DIFF_COEFFICIENT * avgWeightDiff;
   }
 
-  public int numberOfExcessConnections(Genome genome, Map<ConnectionGene, Integer> innovations) {
-    int genome1Max = maxInnovationNumber(innovations);
-    int genome2Max = genome.maxInnovationNumber(innovations);
+  public float evaluateFitness() {
+    return scoreKnown ? knownScore : state.evaluateFitness();
+  }
 
-    int excessConns = 0;
+  // Ends the genome without playing its state, which it would have played to 'score'.
+  void setKnownScore(float score) {
+    this.scoreKnown = true;
+    this.knownScore = score;
+  }
 
-    Genome larger = genome1Max > genome2Max ? this : genome;
-    int smallerMax = Math.min(genome1Max, genome2Max);
+  // A hash of everything that affects how the genome plays: its nodes, and its enabled connections
+  // with their weights. Genomes with the same hash score the same on a deterministic state.
+  public long hash() {
+    long hash = mix(INPUT_COUNT, OUTPUT_COUNT);
 
-    for (Connection connection : larger.connections) {
-      if (innovations.get(connection.getGene()) > smallerMax) {
-        excessConns++;
+    for (int i = 0; i < nodeCount; i++) {
+      hash = mix(hash, nodes[i].ordinal());
+    }
+
+    for (int i = 0; i < genes.size(); i++) {
+      if (genes.isEnabled(i)) {
+        hash = mix(hash, ((long) genes.in(i) << 32) | genes.out(i));
+        hash = mix(hash, Float.floatToIntBits(genes.weight(i)));
       }
     }
 
-    return excessConns;
+    return hash;
   }
 
-  private int maxInnovationNumber(Map<ConnectionGene, Integer> innovations) {
-    return connections.stream()
-        .map(connection -> innovations.get(connection.getGene()))
-        .max(Integer::compareTo)
-        .orElse(Integer.MIN_VALUE);
+  // Returns true if the genome has the same nodes as 'other', and the same enabled connections with
+  // the same weights in the same order, which is everything hash() covers. Two genomes with equal
+  // hashes can then be told apart if the hash collided.
+  boolean playsLike(Genome other) {
+    if (INPUT_COUNT != other.INPUT_COUNT
+        || OUTPUT_COUNT != other.OUTPUT_COUNT
+        || nodeCount != other.nodeCount) {
+      return false;
+    }
+
+    for (int i = 0; i < nodeCount; i++) {
+      if (nodes[i] != other.nodes[i]) {
+        return false;
+      }
+    }
+
+    Genes otherGenes = other.genes;
+    int j = nextEnabled(otherGenes, 0);
+
+    for (int i = nextEnabled(genes, 0); i < genes.size(); i = nextEnabled(genes, i + 1)) {
+      if (j == otherGenes.size()
+          || genes.in(i) != otherGenes.in(j)
+          || genes.out(i) != otherGenes.out(j)
+          || Float.floatToIntBits(genes.weight(i))
+              != Float.floatToIntBits(otherGenes.weight(j))) {
+        return false;
+      }
+
+      j = nextEnabled(otherGenes, j + 1);
+    }
+
+    return j == otherGenes.size();
   }
 
-  public float evaluateFitness() {
-    return state.evaluateFitness();
+  private static int nextEnabled(Genes genes, int from) {
+    while (from < genes.size() && !genes.isEnabled(from)) {
+      from++;
+    }
+
+    return from;
+  }
+
+  private static long mix(long hash, long value) {
+    hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+
+    return hash ^ (hash >>> 29);
   }
 
   public void mutate() {
@@ -187,76 +325,95 @@ class Genome {
 
   public void mutateWeights() {
     if (rng.nextFloat() < WEIGHT_MUTATION_RATE) {
-      for (Connection connection : connections) {
+      for (int i = 0; i < genes.size(); i++) {
         if (rng.nextFloat() < UNIFORM_PERTURBATION_RATE) {
-          float weight = connection.getWeight();
+          float weight = genes.weight(i);
 
-          connection.setWeight((float) (weight + rng.nextGaussian() / 5));
+          genes.setWeight(i, (float) (weight + rng.nextGaussian() / 5));
         } else {
-          connection.setWeight(randomWeight());
+          genes.setWeight(i, randomWeight());
         }
       }
+
+      phenotype = null;
     }
   }
 
   public void mutateAddNode() {
     if (rng.nextFloat() < ADD_NEW_NODE_RATE) {
-      int randomConnIndex = rng.nextInt(connections.size());
+      int randomConnIndex = rng.nextInt(genes.size());
 
-      Connection connection = connections.get(randomConnIndex);
-      connection.disable();
+      genes.setEnabled(randomConnIndex, false);
+      phenotype = null;
 
+      int in = genes.in(randomConnIndex);
+      int out = genes.out(randomConnIndex);
+      float weight = genes.weight(randomConnIndex);
       int newNodeId = addNode(NodeType.HIDDEN);
-      ConnectionGene gene1 = new ConnectionGene(connection.getIn(), newNodeId);
-      ConnectionGene gene2 = new ConnectionGene(newNodeId, connection.getOut());
 
-      addConnection(gene1, 1);
-      addConnection(gene2, connection.getWeight());
+      addConnection(in, newNodeId, 1);
+      addConnection(newNodeId, out, weight);
     }
   }
 
   public void mutateAddConnection() {
     if (rng.nextFloat() < ADD_NEW_CONNECTION_RATE) {
-      List<ConnectionGene> missingGenes = missingGenes();
+      int connection = randomMissingConnection();
 
-      if (missingGenes.isEmpty()) {
+      if (connection == -1) {
         return;
       }
 
-      int randomIndex = rng.nextInt(missingGenes.size());
-
-      addConnection(missingGenes.get(randomIndex), randomWeight());
+      addConnection(connection / nodeCount, connection % nodeCount, randomWeight());
     }
   }
 
-  private List<ConnectionGene> missingGenes() {
-    List<ConnectionGene> genes = new ArrayList<>();
+  // Returns a connection the genome does not have yet, as in * nodeCount + out, or -1 if it has
+  // them all. Outputs have no outgoing connections and inputs have no incoming ones. Random pairs
+  // of nodes are tried first, so finding a connection costs about the same however large the
+  // genome is. The missing connections are only enumerated when the genome is so full that random
+  // pairs keep turning out to be connected already.
+  private int randomMissingConnection() {
+    // Inputs come first, then outputs, then hidden nodes.
+    int sources = nodeCount - OUTPUT_COUNT;
+    int targets = nodeCount - INPUT_COUNT;
+    // Hidden nodes are both sources and targets, but do not connect to themselves. Every gene
+    // connects a source to a different target.
+    int hidden = nodeCount - INPUT_COUNT - OUTPUT_COUNT;
+    int missing = sources * targets - hidden - genes.connectedPairs();
+
+    if (missing <= 0) {
+      return -1;
+    }
 
-    for (int i = 0; i < nodes.size(); i++) {
-      for (int j = 0; j < nodes.size(); j++) {
-        if (i != j) {
-          ConnectionGene gene = new ConnectionGene(i, j);
+    for (int attempt = 0; attempt < MAX_CONNECTION_ATTEMPTS; attempt++) {
+      int in = rng.nextInt(sources);
+      int out = INPUT_COUNT + rng.nextInt(targets);
 
-          if (getNode(i) != NodeType.OUTPUT && getNode(j) != NodeType.INPUT) {
-            if (!containsConnectionGene(gene)) {
-              genes.add(gene);
-            }
-          }
-        }
+      if (in >= INPUT_COUNT) {
+        in += OUTPUT_COUNT;
+      }
+
+      if (in != out && !genes.contains(in, out)) {
+        return in * nodeCount + out;
       }
     }
 
-    return genes;
-  }
+    int chosen = rng.nextInt(missing);
 
-  private boolean containsConnectionGene(ConnectionGene gene) {
-    for (Connection connection : connections) {
-      if (connection.getGene().equals(gene)) {
-        return true;
+    for (int in = 0; in < nodeCount; in++) {
+      for (int out = INPUT_COUNT; out < nodeCount; out++) {
+        if (isMissing(in, out) && chosen-- == 0) {
+          return in * nodeCount + out;
+        }
       }
     }
 
-    return false;
+    throw new AssertionError();
+  }
+
+  private boolean isMissing(int in, int out) {
+    return in != out && getNode(in) != NodeType.OUTPUT && !genes.contains(in, out);
   }
 
   private float randomWeight() {
@@ -272,58 +429,71 @@ class Genome {
       addNode(NodeType.OUTPUT);
 
       for (int j = 0; j < INPUT_COUNT; j++) {
-        ConnectionGene gene = new ConnectionGene(j, i);
-
-        addConnection(gene, randomWeight());
+        addConnection(j, i, randomWeight());
       }
     }
   }
 
-  private void addConnection(ConnectionGene gene, float weight) {
-    population.addInnovation(gene);
-    connections.add(new Connection(gene, weight));
+  private void addConnection(int in, int out, float weight) {
+    int innovation = population.addInnovation(in, out);
+
+    genes.add(in, out, innovation, weight, true);
+    phenotype = null;
+  }
+
+  // Numbers the genes that were added while their innovation number was pending. These are always
+  // the last genes, since a pending gene sorts after every numbered one.
+  void assignPendingInnovations() {
+    int firstPending = genes.size();
+
+    while (firstPending > 0 && genes.innovation(firstPending - 1) == Genes.PENDING_INNOVATION) {
+      firstPending--;
+    }
+
+    for (int i = firstPending; i < genes.size(); i++) {
+      genes.setInnovation(i, population.addInnovation(genes.in(i), genes.out(i)));
+    }
+
+    genes.sortFrom(firstPending);
   }
 
   private int addNode(NodeType node) {
-    nodes.add(node);
-    return nodes.size() - 1;
+    if (nodeCount == nodes.length) {
+      nodes = Arrays.copyOf(nodes, Math.max(nodeCount * 2, 1));
+    }
+
+    nodes[nodeCount] = node;
+    return nodeCount++;
   }
 
   public NodeType getNode(int index) {
-    return nodes.get(index);
-  }
+    assert index < nodeCount;
 
-  public List<NodeType> getNodes() {
-    return nodes;
+    return nodes[index];
   }
 
   public int nodeCount() {
-    return nodes.size();
+    return nodeCount;
   }
 
+  // Returns a copy of the gene at 'index'. Changes to it are not reflected in the genome.
   public Connection getConnection(int index) {
-    return connections.get(index);
+    return new Connection(
+        genes.in(index), genes.out(index), genes.weight(index), genes.isEnabled(index));
   }
 
   public Connection getConnection(ConnectionGene gene) {
-    return connections.stream()
-        .filter(connection -> connection.getGene().equals(gene))
-        .findFirst()
-        .orElse(null);
-  }
-
-  public List<Connection> getConnections() {
-    List<Connection> connsCopy = new ArrayList<>();
+    int index = genes.indexOf(gene.getIn(), gene.getOut());
 
-    for (Connection connection : connections) {
-      connsCopy.add(connection.copy());
-    }
+    return index == -1 ? null : getConnection(index);
+  }
 
-    return connsCopy;
+  Genes getGenes() {
+    return genes;
   }
 
   public int connectionCount() {
-    return connections.size();
+    return genes.size();
   }
 
   public boolean containsNode(NodeType node, int index) {
@@ -347,7 +517,11 @@ class Genome {
   }
 
   public boolean hasEnded() {
-    return state.hasEnded();
+    return scoreKnown || state.hasEnded();
+  }
+
+  boolean isDeterministic() {
+    return state.isDeterministic();
   }
 
   public float getFitness() {
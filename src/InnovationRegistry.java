@@ -0,0 +1,158 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Maps connection genes to innovation numbers. Genes are packed into a single long and stored in
+// an open addressing table, so lookups need no boxing and no lock. Only the first registration of
+// a gene takes a lock, which keeps innovation numbers unique when genomes mutate concurrently.
+class InnovationRegistry {
+
+  public static final int UNKNOWN = -1;
+
+  private static final long EMPTY = -1;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private volatile Table table;
+  private volatile int size;
+
+  public InnovationRegistry() {
+    this.table = new Table(INITIAL_CAPACITY);
+    this.size = 0;
+  }
+
+  // Returns the innovation number of the gene, or UNKNOWN if it has not been registered.
+  public int get(int in, int out) {
+    return table.get(pack(in, out));
+  }
+
+  // Returns the innovation number of the gene, registering it first if it is new.
+  public int register(int in, int out) {
+    long key = pack(in, out);
+    int innovation = table.get(key);
+
+    if (innovation != UNKNOWN) {
+      return innovation;
+    }
+
+    synchronized (this) {
+      innovation = table.get(key);
+
+      if (innovation == UNKNOWN) {
+        if (2 * (size + 1) > table.capacity()) {
+          table = table.resize(table.capacity() * 2);
+        }
+
+        innovation = size;
+        table.put(key, innovation);
+        size = innovation + 1;
+      }
+
+      return innovation;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // Returns every registered gene, indexed by innovation number. Registering them again in this
+  // order restores the same numbering.
+  public synchronized long[] toArray() {
+    long[] genes = new long[size];
+    Table table = this.table;
+
+    for (int i = 0; i < table.capacity(); i++) {
+      long key = table.keys.getPlain(i);
+
+      if (key != EMPTY) {
+        genes[table.values[i]] = key;
+      }
+    }
+
+    return genes;
+  }
+
+  // Unpack the genes returned by toArray.
+  public static int in(long gene) {
+    return (int) (gene >>> 32);
+  }
+
+  public static int out(long gene) {
+    return (int) gene;
+  }
+
+  private static long pack(int in, int out) {
+    assert in >= 0;
+    assert out >= 0;
+
+    return ((long) in << 32) | out;
+  }
+
+  private static final class Table {
+    // Keys are published with release semantics after their value has been written, so a reader
+    // that sees a key also sees its value.
+    private final AtomicLongArray keys;
+    private final int[] values;
+    private final int mask;
+
+    private Table(int capacity) {
+      assert Integer.bitCount(capacity) == 1;
+
+      this.keys = new AtomicLongArray(capacity);
+      this.values = new int[capacity];
+      this.mask = capacity - 1;
+
+      for (int i = 0; i < capacity; i++) {
+        keys.setPlain(i, EMPTY);
+      }
+    }
+
+    private int capacity() {
+      return values.length;
+    }
+
+    private int get(long key) {
+      for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+        long current = keys.getAcquire(i);
+
+        if (current == key) {
+          return values[i];
+        } else if (current == EMPTY) {
+          return UNKNOWN;
+        }
+      }
+    }
+
+    // Only called while holding the registry's lock.
+    private void put(long key, int value) {
+      int i = hash(key) & mask;
+
+      while (keys.getPlain(i) != EMPTY) {
+        i = (i + 1) & mask;
+      }
+
+      values[i] = value;
+      keys.setRelease(i, key);
+    }
+
+    private Table resize(int capacity) {
+      Table resized = new Table(capacity);
+
+      for (int i = 0; i < values.length; i++) {
+        long key = keys.getPlain(i);
+
+        if (key != EMPTY) {
+          resized.put(key, values[i]);
+        }
+      }
+
+      return resized;
+    }
+
+    private static int hash(long key) {
+      key ^= key >>> 33;
+      key *= 0xff51afd7ed558ccdL;
+      key ^= key >>> 33;
+
+      return (int) key;
+    }
+  }
+}
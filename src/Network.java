@@ -0,0 +1,385 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// A trained network that runs on its own, without a genome, population or state. Networks are
+// exported from genomes and saved to a small versioned file, which can be loaded anywhere this class
+// and ActivationFunction are available.
+//
+// All of the buffers a network needs are allocated when it is created, so activating it allocates
+// nothing. A network is not thread safe, but copies share everything apart from their buffers.
+//
+// Phenotypes run their networks with this class too, on node values of their own, so genomes and
+// the networks exported from them always give the same outputs.
+public final class Network {
+
+  // Applied by nodes that use the state's activation function, which only phenotypes have.
+  interface StateFunction {
+    float apply(float x);
+  }
+
+  private static final int MAGIC = 0x4E4E4554; // "NNET"
+  private static final int VERSION = 1;
+
+  private final int inputCount;
+  private final int outputCount;
+  private final int nodeCount;
+  private final ActivationFunction[] functions;
+  private final int recurrentSteps;
+  private final int maxIterations;
+  private final float stabilisationThreshold;
+
+  // These have the same layout as in Phenotype.
+  private final int[] incomingStart;
+  private final int[] incomingNode;
+  private final float[] incomingWeight;
+  private final int[] order;
+  private final int[] blockStart;
+  private final boolean[] recurrent;
+  private final int blockCount;
+
+  private final float[] nodeValues;
+  private final float[] prevNodeValues;
+  private final float[] outputs;
+
+  Network(
+      int inputCount,
+      int outputCount,
+      ActivationFunction[] functions,
+      int recurrentSteps,
+      int maxIterations,
+      float stabilisationThreshold,
+      int[] incomingStart,
+      int[] incomingNode,
+      float[] incomingWeight,
+      int[] order,
+      int[] blockStart,
+      boolean[] recurrent,
+      int blockCount) {
+    this.inputCount = inputCount;
+    this.outputCount = outputCount;
+    this.nodeCount = functions.length;
+    this.functions = functions;
+    this.recurrentSteps = recurrentSteps;
+    this.maxIterations = maxIterations;
+    this.stabilisationThreshold = stabilisationThreshold;
+    this.incomingStart = incomingStart;
+    this.incomingNode = incomingNode;
+    this.incomingWeight = incomingWeight;
+    this.order = order;
+    this.blockStart = blockStart;
+    this.recurrent = recurrent;
+    this.blockCount = blockCount;
+    this.nodeValues = new float[nodeCount];
+    this.prevNodeValues = new float[nodeCount];
+    this.outputs = new float[outputCount];
+  }
+
+  // Returns a network that shares this network's structure but has its own node values.
+  public Network copy() {
+    return withSettings(recurrentSteps, maxIterations);
+  }
+
+  // Returns a copy of the network that is run with the given settings. See Activations.
+  Network withSettings(int recurrentSteps, int maxIterations) {
+    return new Network(
+        inputCount,
+        outputCount,
+        functions,
+        recurrentSteps,
+        maxIterations,
+        stabilisationThreshold,
+        incomingStart,
+        incomingNode,
+        incomingWeight,
+        order,
+        blockStart,
+        recurrent,
+        blockCount);
+  }
+
+  public int inputCount() {
+    return inputCount;
+  }
+
+  public int outputCount() {
+    return outputCount;
+  }
+
+  // Clears the activity carried over between activations by a recurrent network.
+  public void reset() {
+    Arrays.fill(nodeValues, 0);
+    Arrays.fill(prevNodeValues, 0);
+  }
+
+  // Returns the outputs of the network, in an array that is reused by the next activation. This
+  // gives the same outputs as the genome the network was exported from.
+  public float[] activate(float[] inputs) {
+    return activate(
+        inputs, nodeValues, prevNodeValues, outputs, recurrentSteps, maxIterations, null);
+  }
+
+  // Runs the network on the given node values rather than its own, with the given settings. Nodes
+  // that use the state's activation function apply 'stateFunction'.
+  float[] activate(
+      float[] inputs,
+      float[] nodeValues,
+      float[] prevNodeValues,
+      float[] outputs,
+      int recurrentSteps,
+      int maxIterations,
+      StateFunction stateFunction) {
+    assert inputs.length == inputCount;
+    assert nodeValues.length == nodeCount;
+
+    System.arraycopy(inputs, 0, nodeValues, 0, inputCount);
+    System.arraycopy(inputs, 0, prevNodeValues, 0, inputCount);
+
+    if (recurrentSteps > 0) {
+      for (int step = 0; step < recurrentSteps; step++) {
+        propagate(nodeValues, prevNodeValues, 1, stateFunction);
+      }
+    } else {
+      Arrays.fill(nodeValues, inputCount, nodeCount, 0);
+      Arrays.fill(prevNodeValues, inputCount, nodeCount, 0);
+      propagate(nodeValues, prevNodeValues, maxIterations, stateFunction);
+    }
+
+    System.arraycopy(nodeValues, inputCount, outputs, 0, outputCount);
+
+    return outputs;
+  }
+
+  // Evaluates every block in order, relaxing each cycle until it stabilises or has been iterated
+  // 'maxIterations' times. prevNodeValues holds the latest value of every node outside the cycle
+  // being relaxed, so all of the nodes in a cycle can be updated from the previous iteration at
+  // once.
+  private void propagate(
+      float[] nodeValues, float[] prevNodeValues, int maxIterations, StateFunction stateFunction) {
+    for (int block = 0; block < blockCount; block++) {
+      int start = blockStart[block];
+      int end = blockStart[block + 1];
+
+      if (!recurrent[block]) {
+        int node = order[start];
+        nodeValues[node] = apply(node, weightedSum(node, prevNodeValues), stateFunction);
+        prevNodeValues[node] = nodeValues[node];
+        continue;
+      }
+
+      int iterations = 0;
+
+      do {
+        for (int i = start; i < end; i++) {
+          prevNodeValues[order[i]] = nodeValues[order[i]];
+        }
+
+        for (int i = start; i < end; i++) {
+          int node = order[i];
+          nodeValues[node] = apply(node, weightedSum(node, prevNodeValues), stateFunction);
+        }
+
+        iterations++;
+      } while (iterations < maxIterations
+          && !isStabilised(start, end, nodeValues, prevNodeValues));
+
+      for (int i = start; i < end; i++) {
+        prevNodeValues[order[i]] = nodeValues[order[i]];
+      }
+    }
+  }
+
+  private float apply(int node, float sum, StateFunction stateFunction) {
+    ActivationFunction function = functions[node];
+
+    return function == ActivationFunction.STATE ? stateFunction.apply(sum) : function.apply(sum);
+  }
+
+  private float weightedSum(int node, float[] nodeValues) {
+    float sum = 0;
+
+    for (int i = incomingStart[node]; i < incomingStart[node + 1]; i++) {
+      sum += nodeValues[incomingNode[i]] * incomingWeight[i];
+    }
+
+    return sum;
+  }
+
+  private boolean isStabilised(int start, int end, float[] nodeValues, float[] prevNodeValues) {
+    float totalRelDiff = 0;
+
+    for (int i = start; i < end; i++) {
+      int node = order[i];
+
+      if (nodeValues[node] != prevNodeValues[node]) {
+        totalRelDiff +=
+            Math.abs((nodeValues[node] - prevNodeValues[node]) / prevNodeValues[node]);
+      }
+    }
+
+    return totalRelDiff < stabilisationThreshold;
+  }
+
+  // Networks that run on their own cannot use the state's activation function.
+  void checkStandalone() {
+    for (ActivationFunction function : functions) {
+      if (function == ActivationFunction.STATE) {
+        throw new IllegalArgumentException("Networks cannot use the state's activation function");
+      }
+    }
+  }
+
+  public void save(Path path) throws IOException {
+    Files.write(path, toBytes());
+  }
+
+  public byte[] toBytes() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(inputCount);
+      out.writeInt(outputCount);
+      out.writeInt(nodeCount);
+      out.writeInt(recurrentSteps);
+      out.writeInt(maxIterations);
+      out.writeFloat(stabilisationThreshold);
+
+      for (ActivationFunction function : functions) {
+        out.writeByte(function.ordinal());
+      }
+
+      out.writeInt(incomingNode.length);
+
+      for (int i = 0; i <= nodeCount; i++) {
+        out.writeInt(incomingStart[i]);
+      }
+
+      for (int i = 0; i < incomingNode.length; i++) {
+        out.writeInt(incomingNode[i]);
+        out.writeFloat(incomingWeight[i]);
+      }
+
+      out.writeInt(blockCount);
+
+      for (int i = 0; i <= blockCount; i++) {
+        out.writeInt(blockStart[i]);
+      }
+
+      for (int i = 0; i < blockStart[blockCount]; i++) {
+        out.writeInt(order[i]);
+      }
+
+      for (int i = 0; i < blockCount; i++) {
+        out.writeBoolean(recurrent[i]);
+      }
+    } catch (IOException e) {
+      // Writing to memory cannot fail.
+      throw new UncheckedIOException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  public static Network load(Path path) throws IOException {
+    return read(ByteBuffer.wrap(Files.readAllBytes(path)));
+  }
+
+  public static Network read(ByteBuffer in) throws IOException {
+    try {
+      if (in.getInt() != MAGIC) {
+        throw new IOException("Not a network");
+      }
+
+      int version = in.getInt();
+
+      if (version != VERSION) {
+        throw new IOException("Unsupported network version " + version);
+      }
+
+      int inputCount = in.getInt();
+      int outputCount = in.getInt();
+      ActivationFunction[] functions = new ActivationFunction[count(in.getInt(), in, 1)];
+      int recurrentSteps = in.getInt();
+      int maxIterations = in.getInt();
+      float stabilisationThreshold = in.getFloat();
+
+      for (int i = 0; i < functions.length; i++) {
+        functions[i] = ActivationFunction.values()[in.get()];
+      }
+
+      int[] incomingStart = new int[functions.length + 1];
+      int[] incomingNode = new int[count(in.getInt(), in, 8)];
+      float[] incomingWeight = new float[incomingNode.length];
+
+      for (int i = 0; i < incomingStart.length; i++) {
+        incomingStart[i] = in.getInt();
+      }
+
+      for (int i = 0; i < incomingNode.length; i++) {
+        incomingNode[i] = in.getInt();
+        incomingWeight[i] = in.getFloat();
+      }
+
+      int blockCount = count(in.getInt(), in, 5);
+      int[] blockStart = new int[blockCount + 1];
+      boolean[] recurrent = new boolean[blockCount];
+
+      for (int i = 0; i <= blockCount; i++) {
+        blockStart[i] = in.getInt();
+      }
+
+      int[] order = new int[count(blockStart[blockCount], in, 4)];
+
+      for (int i = 0; i < order.length; i++) {
+        order[i] = in.getInt();
+      }
+
+      for (int i = 0; i < blockCount; i++) {
+        recurrent[i] = in.get() != 0;
+      }
+
+      Network network =
+          new Network(
+              inputCount,
+              outputCount,
+              functions,
+              recurrentSteps,
+              maxIterations,
+              stabilisationThreshold,
+              incomingStart,
+              incomingNode,
+              incomingWeight,
+              order,
+              blockStart,
+              recurrent,
+              blockCount);
+      network.checkStandalone();
+
+      return network;
+    } catch (BufferUnderflowException
+        | IndexOutOfBoundsException
+        | NegativeArraySizeException
+        | IllegalArgumentException e) {
+      throw new IOException("Truncated or corrupt network", e);
+    }
+  }
+
+  // Checks that the rest of the buffer could hold 'count' items of at least 'bytes' bytes each,
+  // before anything is allocated for them. A node takes at least its function's byte, a connection
+  // its node and weight, and a block its start and whether it is recurrent.
+  private static int count(int count, ByteBuffer in, int bytes) {
+    if (count < 0 || count > in.remaining() / bytes) {
+      throw new BufferUnderflowException();
+    }
+
+    return count;
+  }
+}
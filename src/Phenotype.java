@@ -0,0 +1,324 @@
+import java.util.Arrays;
+
+// A compiled form of a genome's network. Enabled connections are grouped by the node they feed
+// into, and the non-input nodes are split into blocks that are evaluated in topological order.
+// A block is either a single feed-forward node, which is evaluated once, or a recurrent cycle,
+// which is relaxed until its values stabilise.
+//
+// Single activations are run by a Network over the same arrays, which is also what genomes export.
+// Only batches of activations are run here.
+class Phenotype {
+
+  // Decreasing this may dramatically affect performance.
+  private static final float ACTIVATION_STABILISATION_THRESHOLD = 0.02f;
+  // The number of samples evaluated together by the batch version of activate.
+  private static final int BATCH_SIZE = 64;
+
+  private final int inputCount;
+  private final int outputCount;
+  private final int nodeCount;
+  private final ActivationFunction[] functions;
+
+  // Incoming connections of node i are stored at [incomingStart[i], incomingStart[i + 1]).
+  private final int[] incomingStart;
+  private final int[] incomingNode;
+  private final float[] incomingWeight;
+
+  // Nodes of block b are stored at order[blockStart[b], blockStart[b + 1]).
+  private final int[] order;
+  private final int[] blockStart;
+  private final boolean[] recurrent;
+  private final int blockCount;
+  // Its settings are unused, as every activation passes its own.
+  private final Network network;
+
+  public Phenotype(
+      int inputCount, int outputCount, ActivationFunction[] functions, Genes genes) {
+    this.inputCount = inputCount;
+    this.outputCount = outputCount;
+    this.nodeCount = functions.length;
+    this.functions = functions;
+    this.incomingStart = new int[nodeCount + 1];
+
+    for (int i = 0; i < genes.size(); i++) {
+      if (genes.isEnabled(i)) {
+        incomingStart[genes.out(i) + 1]++;
+      }
+    }
+
+    for (int i = 0; i < nodeCount; i++) {
+      incomingStart[i + 1] += incomingStart[i];
+    }
+
+    this.incomingNode = new int[incomingStart[nodeCount]];
+    this.incomingWeight = new float[incomingStart[nodeCount]];
+    int[] next = Arrays.copyOf(incomingStart, nodeCount);
+
+    for (int i = 0; i < genes.size(); i++) {
+      if (genes.isEnabled(i)) {
+        int slot = next[genes.out(i)]++;
+        incomingNode[slot] = genes.in(i);
+        incomingWeight[slot] = genes.weight(i);
+      }
+    }
+
+    this.order = new int[nodeCount - inputCount];
+    this.blockStart = new int[order.length + 1];
+    this.recurrent = new boolean[order.length];
+
+    this.blockCount = computeBlocks();
+    this.network =
+        new Network(
+            inputCount,
+            outputCount,
+            functions,
+            0,
+            1,
+            ACTIVATION_STABILISATION_THRESHOLD,
+            incomingStart,
+            incomingNode,
+            incomingWeight,
+            order,
+            blockStart,
+            recurrent,
+            blockCount);
+  }
+
+  // Finds the strongly connected components of the non-input nodes using an iterative version of
+  // Tarjan's algorithm. Edges are followed from a node to the nodes it depends on, so components
+  // are completed in the order they need to be evaluated in.
+  private int computeBlocks() {
+    int[] index = new int[nodeCount];
+    int[] lowLink = new int[nodeCount];
+    boolean[] onStack = new boolean[nodeCount];
+    int[] stack = new int[nodeCount];
+    int[] callNode = new int[nodeCount];
+    int[] callEdge = new int[nodeCount];
+    int stackSize = 0;
+    int nextIndex = 0;
+    int orderSize = 0;
+    int blockCount = 0;
+
+    Arrays.fill(index, -1);
+
+    for (int root = inputCount; root < nodeCount; root++) {
+      if (index[root] != -1) {
+        continue;
+      }
+
+      int depth = 0;
+      callNode[0] = root;
+      callEdge[0] = incomingStart[root];
+      index[root] = lowLink[root] = nextIndex++;
+      stack[stackSize++] = root;
+      onStack[root] = true;
+
+      while (depth >= 0) {
+        int node = callNode[depth];
+
+        if (callEdge[depth] < incomingStart[node + 1]) {
+          int dependency = incomingNode[callEdge[depth]++];
+
+          if (dependency < inputCount) {
+            continue;
+          }
+
+          if (index[dependency] == -1) {
+            depth++;
+            callNode[depth] = dependency;
+            callEdge[depth] = incomingStart[dependency];
+            index[dependency] = lowLink[dependency] = nextIndex++;
+            stack[stackSize++] = dependency;
+            onStack[dependency] = true;
+          } else if (onStack[dependency]) {
+            lowLink[node] = Math.min(lowLink[node], index[dependency]);
+          }
+
+          continue;
+        }
+
+        if (lowLink[node] == index[node]) {
+          blockStart[blockCount] = orderSize;
+          int member;
+
+          do {
+            member = stack[--stackSize];
+            onStack[member] = false;
+            order[orderSize++] = member;
+          } while (member != node);
+
+          recurrent[blockCount] = orderSize - blockStart[blockCount] > 1 || hasSelfLoop(node);
+          blockCount++;
+        }
+
+        depth--;
+
+        if (depth >= 0) {
+          int caller = callNode[depth];
+          lowLink[caller] = Math.min(lowLink[caller], lowLink[node]);
+        }
+      }
+    }
+
+    blockStart[blockCount] = orderSize;
+    return blockCount;
+  }
+
+  private boolean hasSelfLoop(int node) {
+    for (int i = incomingStart[node]; i < incomingStart[node + 1]; i++) {
+      if (incomingNode[i] == node) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  // Returns a standalone copy of the network, run with the given settings. See Activations.
+  public Network toNetwork(int recurrentSteps, int maxIterations) {
+    network.checkStandalone();
+
+    return network.withSettings(recurrentSteps, maxIterations);
+  }
+
+  // Returns the outputs of the network, in an array that is reused by the next activation. See
+  // Activations for the settings.
+  public float[] activate(
+      float[] inputs, Activations activations, int recurrentSteps, int maxIterations) {
+    assert activations.nodeCount() == nodeCount;
+
+    return network.activate(
+        inputs,
+        activations.nodeValues(),
+        activations.prevNodeValues(),
+        activations.outputs(),
+        recurrentSteps,
+        maxIterations,
+        activations.stateFunction());
+  }
+
+  // Evaluates a batch of input vectors, writing the outputs for inputs[i] to outputs[i]. Samples
+  // are processed in groups, with the values of each node for a whole group stored side by side, so
+  // the inner loops run over contiguous arrays that the JIT can vectorise. A cycle is relaxed until
+  // every sample in the group has stabilised, or has been iterated 'maxIterations' times.
+  public void activate(float[][] inputs, float[][] outputs, State state, int maxIterations) {
+    assert inputs.length == outputs.length;
+
+    float[] nodeValues = new float[nodeCount * BATCH_SIZE];
+    float[] prevNodeValues = new float[nodeCount * BATCH_SIZE];
+    float[] sums = new float[BATCH_SIZE];
+    float[] relDiffs = new float[BATCH_SIZE];
+
+    for (int first = 0; first < inputs.length; first += BATCH_SIZE) {
+      int samples = Math.min(BATCH_SIZE, inputs.length - first);
+
+      for (int sample = 0; sample < samples; sample++) {
+        assert inputs[first + sample].length == inputCount;
+        assert outputs[first + sample].length == outputCount;
+
+        for (int i = 0; i < inputCount; i++) {
+          prevNodeValues[i * BATCH_SIZE + sample] = inputs[first + sample][i];
+        }
+      }
+
+      for (int block = 0; block < blockCount; block++) {
+        int start = blockStart[block];
+        int end = blockStart[block + 1];
+
+        if (!recurrent[block]) {
+          activateBatch(order[start], samples, nodeValues, prevNodeValues, sums, state);
+          copyBatch(order[start], samples, nodeValues, prevNodeValues);
+          continue;
+        }
+
+        int iterations = 0;
+        boolean stabilised;
+
+        do {
+          for (int i = start; i < end; i++) {
+            copyBatch(order[i], samples, nodeValues, prevNodeValues);
+          }
+
+          for (int i = start; i < end; i++) {
+            activateBatch(order[i], samples, nodeValues, prevNodeValues, sums, state);
+          }
+
+          iterations++;
+          stabilised = isStabilised(start, end, samples, nodeValues, prevNodeValues, relDiffs);
+        } while (iterations < maxIterations && !stabilised);
+
+        for (int i = start; i < end; i++) {
+          copyBatch(order[i], samples, nodeValues, prevNodeValues);
+        }
+      }
+
+      for (int sample = 0; sample < samples; sample++) {
+        for (int i = 0; i < outputCount; i++) {
+          outputs[first + sample][i] = nodeValues[(inputCount + i) * BATCH_SIZE + sample];
+        }
+      }
+    }
+  }
+
+  private void activateBatch(
+      int node, int samples, float[] nodeValues, float[] prevNodeValues, float[] sums, State state) {
+    Arrays.fill(sums, 0, samples, 0);
+
+    for (int i = incomingStart[node]; i < incomingStart[node + 1]; i++) {
+      int offset = incomingNode[i] * BATCH_SIZE;
+      float weight = incomingWeight[i];
+
+      for (int sample = 0; sample < samples; sample++) {
+        sums[sample] += prevNodeValues[offset + sample] * weight;
+      }
+    }
+
+    int offset = node * BATCH_SIZE;
+    ActivationFunction function = functions[node];
+
+    if (function == ActivationFunction.STATE) {
+      for (int sample = 0; sample < samples; sample++) {
+        nodeValues[offset + sample] = state.activate(sums[sample]);
+      }
+    } else {
+      for (int sample = 0; sample < samples; sample++) {
+        nodeValues[offset + sample] = function.apply(sums[sample]);
+      }
+    }
+  }
+
+  private static void copyBatch(int node, int samples, float[] from, float[] to) {
+    System.arraycopy(from, node * BATCH_SIZE, to, node * BATCH_SIZE, samples);
+  }
+
+  private boolean isStabilised(
+      int start,
+      int end,
+      int samples,
+      float[] nodeValues,
+      float[] prevNodeValues,
+      float[] relDiffs) {
+    Arrays.fill(relDiffs, 0, samples, 0);
+
+    for (int i = start; i < end; i++) {
+      int offset = order[i] * BATCH_SIZE;
+
+      for (int sample = 0; sample < samples; sample++) {
+        float value = nodeValues[offset + sample];
+        float prevValue = prevNodeValues[offset + sample];
+
+        if (value != prevValue) {
+          relDiffs[sample] += Math.abs((value - prevValue) / prevValue);
+        }
+      }
+    }
+
+    for (int sample = 0; sample < samples; sample++) {
+      if (!(relDiffs[sample] < ACTIVATION_STABILISATION_THRESHOLD)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
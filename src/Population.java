@@ -1,53 +1,412 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.function.Predicate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 class Population {
 
   private static final float INHERITED_GENE_DISABLED_RATE = 0.75f;
   private static final float CROSSOVER_RATE = 0.75f;
   private static final float INTERSPECIES_MATING_RATE = 0.001f;
-  private static final float COMPATIBILITY_DISTANCE_THRESHOLD = 3.0f;
+  static final float COMPATIBILITY_DISTANCE_THRESHOLD = 3.0f;
+  private static final int DEFAULT_MAX_ACTIVATION_ITERATIONS = 100;
+  // Keeps the episode seeds apart from the seeds used for reproduction in the same generation.
+  private static final long EPISODE_SEED_SALT = 0x5DEECE66DL;
+  private static final long STEADY_STATE_SEED_SALT = 0xB5297A4DL;
 
   public int GENERATION_NUMBER;
 
-  private final Map<ConnectionGene, Integer> innovations;
+  private final InnovationRegistry innovations;
   private final List<Species> species;
-  private final Random rng;
+  private final long seed;
   private final int POPULATION_COUNT;
 
   private Genome[] genomes;
-
-  public Population(int populationCount, int inputCount, int outputCount, State state) {
-    this.GENERATION_NUMBER = 0;
-    this.POPULATION_COUNT = populationCount;
-    this.genomes = new Genome[POPULATION_COUNT];
-    this.innovations = new Hashtable<>();
-    this.species = new ArrayList<>();
-    this.rng = new Random();
+  // Roulette wheels over the whole population and over each species, rebuilt every generation.
+  private FitnessTable populationTable;
+  private FitnessTable[] speciesTables;
+  // Set while offspring are created in parallel, see addInnovation.
+  private volatile boolean reproducing;
+  // See Activations for how these control the way networks are run.
+  private int recurrentSteps;
+  private int maxActivationIterations;
+  // With no episodes, each genome plays its own state in lockstep. See setEpisodes.
+  private int episodes;
+  private FitnessAggregation aggregation;
+  private final PopulationMetrics metrics;
+  // Steady-state evolution, see setSteadyState. Genomes that have ended and been given a fitness
+  // are evaluated, and are the only genomes that can be parents or be replaced. Their indices are
+  // queued least fit first.
+  private int steadyStateParents;
+  private PriorityQueue<Integer> evaluated;
+  // The indices of the genomes that ended during the last tick, added as they are updated.
+  private int[] ended;
+  private AtomicInteger endedCount;
+  private int replacements;
+  private SplittableRandom steadyStateRng;
+  // The fittest genome of the last generation to be evaluated, see getChampion.
+  private Genome champion;
+  private float championScore;
+  // The number of the fittest genomes that are copied unchanged into the next generation.
+  private int elites;
+  // The scores of the last generation by genome hash, kept while states are deterministic.
+  // Each maps to an index into the genomes and scores of that generation, so a hash that collides
+  // can be told apart from the same genome.
+  private Map<Long, Integer> knownScores;
+  private Genome[] scoredGenomes;
+  private float[] knownScoreValues;
+  // Runs whole episodes as single tasks when set, see setExecutor.
+  private Executor executor;
+  // Plays episodes on worker processes when set, see setCoordinator.
+  private EvaluationCoordinator coordinator;
+  // Where and how often checkpoints are taken, see setCheckpoints.
+  private Path checkpointPath;
+  private int checkpointInterval;
+
+  public Population(int populationCount, int inputCount, int outputCount, State state, long seed) {
+    this(populationCount, seed, 0, new InnovationRegistry(), new ArrayList<>());
 
     species.add(new Species(GENERATION_NUMBER));
     species.get(0).setSize(POPULATION_COUNT);
 
+    SplittableRandom rng = generationRng();
+
     for (int i = 0; i < POPULATION_COUNT; i++) {
-      genomes[i] = new Genome(inputCount, outputCount, state, this);
+      genomes[i] = new Genome(inputCount, outputCount, state, new Random(rng.nextLong()), this);
     }
   }
 
+  public Population(int populationCount, int inputCount, int outputCount, State state) {
+    this(populationCount, inputCount, outputCount, state, new Random().nextLong());
+  }
+
+  // Creates a population without any genomes, which must then be set. See Checkpoint.
+  Population(
+      int populationCount,
+      long seed,
+      int generation,
+      InnovationRegistry innovations,
+      List<Species> species) {
+    this.GENERATION_NUMBER = generation;
+    this.POPULATION_COUNT = populationCount;
+    this.genomes = new Genome[POPULATION_COUNT];
+    this.innovations = innovations;
+    this.species = species;
+    this.seed = seed;
+    this.reproducing = false;
+    this.recurrentSteps = 0;
+    this.maxActivationIterations = DEFAULT_MAX_ACTIVATION_ITERATIONS;
+    this.episodes = 0;
+    this.aggregation = FitnessAggregation.MEAN;
+    this.checkpointInterval = 0;
+    this.metrics = new PopulationMetrics();
+  }
+
+  // Restores a population from a checkpoint, giving its genomes states reset from 'state'.
+  public static Population load(Path path, State state) throws IOException {
+    return Checkpoint.read(path, state);
+  }
+
   // TODO: Ensure this class is idiomatic and efficient.
 
+  // Advances every genome's state by one update, moving on to the next generation once they have
+  // all ended. When genomes play seeded episodes instead, a whole generation is played at once.
   public void update() {
-    Arrays.stream(genomes)
+    if (episodes > 0) {
+      evaluateEpisodes();
+      endGeneration();
+      return;
+    }
+
+    if (executor != null && steadyStateParents == 0) {
+      playGeneration();
+      endGeneration();
+      return;
+    }
+
+    if (steadyStateParents > 0 && evaluated == null) {
+      startSteadyState();
+    }
+
+    long start = System.nanoTime();
+
+    IntStream.range(0, POPULATION_COUNT)
         .parallel()
-        .filter(Predicate.not(Genome::hasEnded))
-        .forEach(Genome::updateState);
+        .filter(i -> !genomes[i].hasEnded())
+        .forEach(
+            i -> {
+              genomes[i].updateState();
+              metrics.recordUpdates(1);
+
+              if (steadyStateParents > 0 && genomes[i].hasEnded()) {
+                ended[endedCount.getAndIncrement()] = i;
+              }
+            });
+
+    start = metrics.recordTick(start);
+
+    if (steadyStateParents > 0) {
+      replaceEnded(start);
+    } else if (allEnded()) {
+      float[] scores = new float[POPULATION_COUNT];
+
+      for (int i = 0; i < POPULATION_COUNT; i++) {
+        scores[i] = genomes[i].evaluateFitness();
+      }
+
+      evaluateFitness(scores);
+      metrics.record(GenerationStats.Phase.EVALUATE, start);
+      endGeneration();
+    }
+  }
+
+  // Plays every genome's state to the end, each as a single task, and then evaluates them.
+  private void playGeneration() {
+    long start = System.nanoTime();
+
+    forEach(POPULATION_COUNT, i -> metrics.recordUpdates(genomes[i].play()));
+
+    start = metrics.record(GenerationStats.Phase.SIMULATE, start);
+    float[] scores = new float[POPULATION_COUNT];
+
+    for (int i = 0; i < POPULATION_COUNT; i++) {
+      scores[i] = genomes[i].evaluateFitness();
+    }
+
+    evaluateFitness(scores);
+    metrics.record(GenerationStats.Phase.EVALUATE, start);
+  }
+
+  // Runs task(i) for every i below 'count', on the executor if there is one and otherwise on the
+  // common pool, and returns once they have all finished. The first exception thrown by a task is
+  // rethrown.
+  private void forEach(int count, IntConsumer task) {
+    if (executor == null) {
+      IntStream.range(0, count).parallel().forEach(task);
+      return;
+    }
+
+    CountDownLatch remaining = new CountDownLatch(count);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    for (int i = 0; i < count; i++) {
+      int index = i;
+
+      executor.execute(
+          () -> {
+            try {
+              task.accept(index);
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            } finally {
+              remaining.countDown();
+            }
+          });
+    }
+
+    try {
+      remaining.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for genomes to finish", e);
+    }
+
+    if (failure.get() instanceof RuntimeException) {
+      throw (RuntimeException) failure.get();
+    } else if (failure.get() instanceof Error) {
+      throw (Error) failure.get();
+    } else if (failure.get() != null) {
+      throw new IllegalStateException(failure.get());
+    }
+  }
+
+  private void startSteadyState() {
+    evaluated =
+        new PriorityQueue<>(
+            Comparator.<Integer>comparingDouble(i -> genomes[i].getFitness())
+                .thenComparingInt(i -> i));
+    ended = new int[POPULATION_COUNT];
+    endedCount = new AtomicInteger();
+    steadyStateRng = new SplittableRandom(seed ^ STEADY_STATE_SEED_SALT);
+    championScore = Float.NEGATIVE_INFINITY;
+    chooseRepresentatives(steadyStateRng);
+
+    // Genomes that had already ended are evaluated after the first tick.
+    for (int i = 0; i < POPULATION_COUNT; i++) {
+      if (genomes[i].hasEnded()) {
+        ended[endedCount.getAndIncrement()] = i;
+      }
+    }
+  }
+
+  // Evaluates the genomes that have just ended, and once there are enough evaluated genomes,
+  // replaces the least fit of them for each one that ends. The replacements start playing on the
+  // next update, so the same number of genomes are always playing.
+  private void replaceEnded(long start) {
+    int count = endedCount.getAndSet(0);
+
+    // Genomes end on different threads, so they are sorted to be evaluated in the same order on
+    // every run.
+    Arrays.sort(ended, 0, count);
+
+    for (int i = 0; i < count; i++) {
+      Genome genome = genomes[ended[i]];
+      float score = genome.evaluateFitness();
+
+      genome.setFitness(fitness(genome, score));
+      species.get(genome.getSpecies()).bestFitnessInSpecies(genome.getFitness(), GENERATION_NUMBER);
+      evaluated.add(ended[i]);
+
+      if (champion == null || score > championScore) {
+        champion = genome;
+        championScore = score;
+      }
+    }
+
+    start = metrics.record(GenerationStats.Phase.EVALUATE, start);
+
+    if (evaluated.size() >= steadyStateParents) {
+      replaceWorst(evaluated.size() - steadyStateParents + 1, start);
+    }
+  }
+
+  // Replaces the 'count' least fit evaluated genomes with offspring of the evaluated genomes, which
+  // are selected from tables built once for all of them. Every time the whole population's worth
+  // of genomes has been replaced counts as a generation.
+  private void replaceWorst(int count, long start) {
+    Genome[] parents = new Genome[evaluated.size()];
+    int parentCount = 0;
+
+    for (int i : evaluated) {
+      parents[parentCount++] = genomes[i];
+    }
+
+    buildFitnessTables(parents);
+    start = metrics.record(GenerationStats.Phase.SELECT, start);
+
+    for (int i = 0; i < count; i++) {
+      int worst = evaluated.poll();
+      Genome offspring = createOffspring(populationTable.sample(steadyStateRng), steadyStateRng);
+      start = metrics.record(GenerationStats.Phase.REPRODUCE, start);
 
-    if (allEnded()) {
-      System.out.printf(
-          "Gen: %1$s\tAvg: %2$s\tTime: %3$s%n",
-          GENERATION_NUMBER, fitnessSum() / POPULATION_COUNT, LocalDateTime.now().toLocalTime());
-      nextGeneration();
+      int placement = findSpecies(offspring, 0, species.size());
+
+      if (placement == -1) {
+        Species newSpecies = new Species(GENERATION_NUMBER);
+        newSpecies.setRepresentative(offspring);
+        species.add(newSpecies);
+        placement = species.size() - 1;
+      }
+
+      species.get(genomes[worst].getSpecies()).remove();
+      species.get(placement).add();
+      offspring.setSpecies(placement);
+      genomes[worst] = offspring;
+      replacements++;
+
+      // An offspring whose state has already ended is never updated, so it is evaluated now.
+      if (offspring.hasEnded()) {
+        ended[endedCount.getAndIncrement()] = worst;
+      }
+
+      start = metrics.record(GenerationStats.Phase.SPECIATE, start);
+
+      if (replacements % POPULATION_COUNT == 0) {
+        float meanFitness = fitnessSum() / POPULATION_COUNT;
+
+        printGeneration(meanFitness);
+        metrics.finishGeneration(GENERATION_NUMBER, meanFitness);
+        GENERATION_NUMBER++;
+        chooseRepresentatives(steadyStateRng);
+        // The champion stays until a genome of the new generation is scored.
+        championScore = Float.NEGATIVE_INFINITY;
+        start = System.nanoTime();
+      }
+    }
+  }
+
+  private void endGeneration() {
+    float meanFitness = fitnessSum() / POPULATION_COUNT;
+
+    printGeneration(meanFitness);
+    nextGeneration();
+    metrics.finishGeneration(GENERATION_NUMBER - 1, meanFitness);
+
+    if (checkpointInterval > 0 && GENERATION_NUMBER % checkpointInterval == 0) {
+      checkpoint(checkpointPath)
+          .exceptionally(
+              e -> {
+                System.err.println("Could not write checkpoint: " + e.getCause());
+                return null;
+              });
+    }
+  }
+
+  private void printGeneration(float meanFitness) {
+    System.out.printf(
+        "Gen: %1$s\tAvg: %2$s\tTime: %3$s%n",
+        GENERATION_NUMBER, meanFitness, LocalDateTime.now().toLocalTime());
+  }
+
+  // Saves the population as it is now, between generations, and writes it to 'path' in the
+  // background. The returned future completes once the file has been written.
+  public CompletableFuture<Path> checkpoint(Path path) {
+    return Checkpoint.writeAsync(this, path);
+  }
+
+  // Takes a checkpoint every 'interval' generations, replacing the previous one at 'path'. An
+  // interval of zero stops checkpointing.
+  public void setCheckpoints(Path path, int interval) {
+    assert interval >= 0;
+
+    this.checkpointPath = path;
+    this.checkpointInterval = interval;
+  }
+
+  // Plays every genome through the same seeded episodes and sets its fitness from their scores.
+  // Each episode is a separate task, so the episodes of one genome are spread across the pool
+  // alongside those of every other genome. With a coordinator, the workers play the episodes.
+  void evaluateEpisodes() {
+    long[] seeds = new long[episodes];
+    SplittableRandom rng =
+        new SplittableRandom(seed ^ EPISODE_SEED_SALT ^ (GENERATION_NUMBER * 0x9E3779B97F4A7C15L));
+
+    for (int i = 0; i < episodes; i++) {
+      seeds[i] = rng.nextLong();
+    }
+
+    long start = System.nanoTime();
+    float[] scores;
+
+    if (coordinator != null) {
+      scores = coordinator.evaluate(this, seeds);
+      start = metrics.record(GenerationStats.Phase.SIMULATE, start);
+    } else {
+      float[][] episodeScores = new float[POPULATION_COUNT][episodes];
+
+      forEach(
+          POPULATION_COUNT * episodes,
+          task ->
+              episodeScores[task / episodes][task % episodes] =
+                  genomes[task / episodes].runEpisode(seeds[task % episodes]));
+
+      start = metrics.record(GenerationStats.Phase.SIMULATE, start);
+      scores = new float[POPULATION_COUNT];
+
+      for (int i = 0; i < POPULATION_COUNT; i++) {
+        scores[i] = aggregation.aggregate(episodeScores[i]);
+      }
     }
+
+    evaluateFitness(scores);
+    metrics.record(GenerationStats.Phase.EVALUATE, start);
   }
 
   public boolean allEnded() {
@@ -60,74 +419,246 @@ class Population {
     return true;
   }
 
-  private void nextGeneration() {
+  // Offspring are created in parallel, each from its own random stream split from the generation's
+  // seed, so the new generation does not depend on how the work is scheduled. Innovation numbers
+  // for new genes are then assigned in offspring order before the offspring are speciated.
+  void nextGeneration() {
     Genome[] newGenomes = new Genome[POPULATION_COUNT];
-
-    evaluateFitness();
+    SplittableRandom[] offspringRngs = new SplittableRandom[POPULATION_COUNT];
+    SplittableRandom rng = generationRng();
+    long start = System.nanoTime();
 
     for (int i = 0; i < POPULATION_COUNT; i++) {
-      if (rng.nextFloat() < CROSSOVER_RATE) {
-        Genome parent1 = getParent(genomes[i]);
-        Genome parent2 = getParent(genomes[i]);
+      offspringRngs[i] = rng.split();
+    }
 
-        assert parent1 != null && parent2 != null;
+    buildFitnessTables(genomes);
+    int[] fittest = fittest(elites);
+    start = metrics.record(GenerationStats.Phase.SELECT, start);
+    reproducing = true;
+
+    try {
+      IntStream.range(0, POPULATION_COUNT)
+          .parallel()
+          .forEach(
+              i ->
+                  newGenomes[i] =
+                      i < fittest.length
+                          ? genomes[fittest[i]].copy(new Random(offspringRngs[i].nextLong()))
+                          : createOffspring(genomes[i], offspringRngs[i]));
+    } finally {
+      reproducing = false;
+    }
 
-        newGenomes[i] = crossover(parent1, parent2);
-      } else {
-        newGenomes[i] = genomes[i];
-      }
+    for (Genome genome : newGenomes) {
+      genome.assignPendingInnovations();
+    }
+
+    start = metrics.record(GenerationStats.Phase.REPRODUCE, start);
+    chooseRepresentatives(rng);
+    placeInSpecies(newGenomes);
+    metrics.record(GenerationStats.Phase.SPECIATE, start);
 
-      newGenomes[i].mutate();
-      placeInSpecies(newGenomes[i]);
+    if (knownScores != null) {
+      for (Genome genome : newGenomes) {
+        Integer known = knownScores.get(genome.hash());
+
+        if (known != null && genome.playsLike(scoredGenomes[known])) {
+          genome.setKnownScore(knownScoreValues[known]);
+        }
+      }
     }
 
     genomes = newGenomes;
     GENERATION_NUMBER++;
   }
 
+  // Returns the indexes of the 'count' fittest genomes, fittest first, with ties going to the lower
+  // index. The fittest seen so far are kept in a heap with the least fit at the top, so the
+  // population is scanned once rather than sorted.
+  private int[] fittest(int count) {
+    int[] heap = new int[count];
+
+    for (int i = 0; i < POPULATION_COUNT; i++) {
+      if (i < count) {
+        heap[i] = i;
+        siftUp(heap, i);
+      } else if (count > 0 && isFitter(i, heap[0])) {
+        heap[0] = i;
+        siftDown(heap, 0, count);
+      }
+    }
+
+    // Moving the least fit to the end each time leaves the fittest first.
+    for (int end = Math.min(count, POPULATION_COUNT) - 1; end > 0; end--) {
+      int least = heap[0];
+
+      heap[0] = heap[end];
+      heap[end] = least;
+      siftDown(heap, 0, end);
+    }
+
+    return heap;
+  }
+
+  private void siftUp(int[] heap, int index) {
+    while (index > 0 && isFitter(heap[(index - 1) / 2], heap[index])) {
+      int parent = (index - 1) / 2;
+      int genome = heap[index];
+
+      heap[index] = heap[parent];
+      heap[parent] = genome;
+      index = parent;
+    }
+  }
+
+  private void siftDown(int[] heap, int index, int size) {
+    while (2 * index + 1 < size) {
+      int child = 2 * index + 1;
+
+      if (child + 1 < size && isFitter(heap[child], heap[child + 1])) {
+        child++;
+      }
+
+      if (!isFitter(heap[index], heap[child])) {
+        return;
+      }
+
+      int genome = heap[index];
+
+      heap[index] = heap[child];
+      heap[child] = genome;
+      index = child;
+    }
+  }
+
+  private boolean isFitter(int i, int j) {
+    int compared = Float.compare(genomes[i].getFitness(), genomes[j].getFitness());
+
+    return compared > 0 || (compared == 0 && i < j);
+  }
+
+  private Genome createOffspring(Genome genome, SplittableRandom rng) {
+    Genome offspring;
+
+    if (rng.nextDouble() < CROSSOVER_RATE) {
+      Genome parent1 = getParent(genome, rng);
+      Genome parent2 = getParent(genome, rng);
+
+      assert parent1 != null && parent2 != null;
+
+      offspring = crossover(parent1, parent2, rng);
+    } else {
+      offspring = genome.copy(new Random(rng.nextLong()));
+    }
+
+    offspring.mutate();
+
+    return offspring;
+  }
+
+  private SplittableRandom generationRng() {
+    return new SplittableRandom(seed ^ (GENERATION_NUMBER * 0x9E3779B97F4A7C15L));
+  }
+
   // This never explicitly chooses a parent from another species, there is just
   // a chance that a parent is selected from the whole population, instead of
   // one species.
-  private Genome getParent(Genome genome) {
-    boolean interspeciesMating = rng.nextFloat() < INTERSPECIES_MATING_RATE;
+  private Genome getParent(Genome genome, SplittableRandom rng) {
+    boolean interspeciesMating = rng.nextDouble() < INTERSPECIES_MATING_RATE;
 
-    float fitnessSum = interspeciesMating ? fitnessSum() : fitnessSum(genome.getSpecies());
+    if (interspeciesMating) {
+      return populationTable.sample(rng);
+    }
 
-    float randomFitnessTotal = rng.nextFloat() * fitnessSum;
-    float total = 0;
+    return speciesTables[genome.getSpecies()].sample(rng);
+  }
 
-    for (int i = 0; i < POPULATION_COUNT; i++) {
-      if (interspeciesMating || genomes[i].getSpecies() == genome.getSpecies()) {
-        total += genomes[i].getFitness();
-      }
+  // Builds the roulette wheels used to select from 'parents', once their fitness is known.
+  private void buildFitnessTables(Genome[] parents) {
+    int[] memberCounts = new int[species.size()];
 
-      if (total >= randomFitnessTotal) {
-        return genomes[i];
-      }
+    for (Genome genome : parents) {
+      memberCounts[genome.getSpecies()]++;
+    }
+
+    Genome[][] members = new Genome[species.size()][];
+
+    for (int i = 0; i < species.size(); i++) {
+      members[i] = new Genome[memberCounts[i]];
+      memberCounts[i] = 0;
+    }
+
+    for (Genome genome : parents) {
+      members[genome.getSpecies()][memberCounts[genome.getSpecies()]++] = genome;
     }
 
-    return null;
+    populationTable = new FitnessTable(parents);
+    speciesTables = new FitnessTable[species.size()];
+
+    for (int i = 0; i < species.size(); i++) {
+      if (members[i].length > 0) {
+        speciesTables[i] = new FitnessTable(members[i]);
+      }
+    }
   }
 
-  private void evaluateFitness() {
+  // Sets the fitness of each genome from the score it achieved, unless its species has stagnated.
+  private void evaluateFitness(float[] scores) {
     float[] bestFitness = new float[species.size()];
+    int best = 0;
 
-    for (Genome genome : genomes) {
-      if (species.size() > 1 && species.get(genome.getSpecies()).isStagnant(GENERATION_NUMBER)) {
-        genome.setFitness(0);
-      } else {
-        genome.setFitness(genome.evaluateFitness());
-        // genome.setFitness(genome.evaluateFitness() / species.get(genome.getSpecies()).size());
-
-        if (genome.getFitness() > bestFitness[genome.getSpecies()]) {
-          bestFitness[genome.getSpecies()] = genome.getFitness();
-        }
+    for (int i = 0; i < POPULATION_COUNT; i++) {
+      Genome genome = genomes[i];
+
+      if (scores[i] > scores[best]) {
+        best = i;
+      }
+
+      genome.setFitness(fitness(genome, scores[i]));
+      // genome.setFitness(genome.evaluateFitness() / species.get(genome.getSpecies()).size());
+
+      if (genome.getFitness() > bestFitness[genome.getSpecies()]) {
+        bestFitness[genome.getSpecies()] = genome.getFitness();
       }
     }
 
     for (int i = 0; i < species.size(); i++) {
       species.get(i).bestFitnessInSpecies(bestFitness[i], GENERATION_NUMBER);
     }
+
+    champion = POPULATION_COUNT > 0 ? genomes[best] : null;
+    championScore = POPULATION_COUNT > 0 ? scores[best] : Float.NEGATIVE_INFINITY;
+    rememberScores(scores);
+  }
+
+  // The fitness a genome gets for its score, which is none once its species has stagnated, unless
+  // it is the only species.
+  private float fitness(Genome genome, float score) {
+    if (species.size() > 1 && species.get(genome.getSpecies()).isStagnant(GENERATION_NUMBER)) {
+      return 0;
+    }
+
+    return score;
+  }
+
+  // Only genomes that play their own states every generation can be scored from the last
+  // generation, as episodes change every generation.
+  private void rememberScores(float[] scores) {
+    if (episodes > 0 || POPULATION_COUNT == 0 || !genomes[0].isDeterministic()) {
+      knownScores = null;
+      scoredGenomes = null;
+      knownScoreValues = null;
+      return;
+    }
+
+    knownScores = new HashMap<>();
+    scoredGenomes = genomes;
+    knownScoreValues = scores;
+
+    for (int i = 0; i < POPULATION_COUNT; i++) {
+      knownScores.put(genomes[i].hash(), i);
+    }
   }
 
   public float fitnessSum() {
@@ -142,96 +673,273 @@ class Population {
         .orElse(0.0f);
   }
 
-  private Genome crossover(Genome parent1, Genome parent2) {
+  // The child inherits every gene of the fitter parent. Genes are ordered by innovation number, so
+  // the genes it shares with the other parent are found in a single pass over both parents.
+  Genome crossover(Genome parent1, Genome parent2, SplittableRandom rng) {
     assert parent1.INPUT_COUNT == parent2.INPUT_COUNT;
     assert parent1.OUTPUT_COUNT == parent2.OUTPUT_COUNT;
 
-    int inputCount = parent1.INPUT_COUNT;
-    int outputCount = parent1.OUTPUT_COUNT;
-
-    List<Connection> childConns = new ArrayList<>();
-    List<Connection> parent1Conns = parent1.getConnections();
-    List<Connection> parent2Conns = parent2.getConnections();
-
-    for (int i = 0; i < parent1Conns.size(); i++) {
-      Connection connection1 = parent1Conns.get(i);
+    boolean parent1Fitter = parent1.getFitness() > parent2.getFitness();
+    Genome fitter = parent1Fitter ? parent1 : parent2;
+    Genes fitterGenes = fitter.getGenes();
+    Genes otherGenes = parent1Fitter ? parent2.getGenes() : parent1.getGenes();
+    Genes childGenes = new Genes(fitterGenes.size());
+    int j = 0;
 
-      for (int j = 0; j < parent2Conns.size(); j++) {
-        Connection connection2 = parent2Conns.get(j);
+    for (int i = 0; i < fitterGenes.size(); i++) {
+      int innovation = fitterGenes.innovation(i);
+      float weight = fitterGenes.weight(i);
+      boolean enabled = fitterGenes.isEnabled(i);
 
-        if (connection1.getGene().equals(connection2.getGene())) {
-          if (connection1.isDisabled() || connection2.isDisabled()) {
-            if (rng.nextFloat() < INHERITED_GENE_DISABLED_RATE) {
-              connection1.disable();
-              connection2.disable();
-            } else {
-              connection1.enable();
-              connection2.enable();
-            }
-          }
+      while (j < otherGenes.size() && otherGenes.innovation(j) < innovation) {
+        j++;
+      }
 
-          // Randomly choose a parent
-          if (rng.nextBoolean()) {
-            childConns.add(connection1);
-          } else {
-            childConns.add(connection2);
-          }
+      if (j < otherGenes.size() && otherGenes.innovation(j) == innovation) {
+        if (!enabled || !otherGenes.isEnabled(j)) {
+          enabled = rng.nextDouble() >= INHERITED_GENE_DISABLED_RATE;
+        }
 
-          parent1Conns.remove(i);
-          parent2Conns.remove(j);
+        // Randomly choose a parent
+        if (rng.nextBoolean() != parent1Fitter) {
+          weight = otherGenes.weight(j);
         }
+
+        j++;
       }
+
+      childGenes.add(fitterGenes.in(i), fitterGenes.out(i), innovation, weight, enabled);
     }
 
-    // Since we have removed all matching connections, this adds the disjoint
-    // and excess connections.
-    if (parent1.evaluateFitness() > parent2.evaluateFitness()) {
-      childConns.addAll(parent1Conns);
-      return new Genome(inputCount, outputCount, childConns, parent1, this);
-    } else {
-      childConns.addAll(parent2Conns);
-      return new Genome(inputCount, outputCount, childConns, parent2, this);
+    return new Genome(
+        fitter.INPUT_COUNT,
+        fitter.OUTPUT_COUNT,
+        childGenes,
+        fitter,
+        new Random(rng.nextLong()),
+        this);
+  }
+
+  // Each species is represented by a random member of the current generation. Species without any
+  // members are left without a representative, so nothing can join them.
+  private void chooseRepresentatives(SplittableRandom rng) {
+    int[] memberCounts = new int[species.size()];
+
+    for (Genome genome : genomes) {
+      memberCounts[genome.getSpecies()]++;
+    }
+
+    // The index of the chosen member within its species, counting down as members are passed.
+    int[] chosenMember = new int[species.size()];
+
+    for (int i = 0; i < species.size(); i++) {
+      species.get(i).setRepresentative(null);
+      chosenMember[i] = memberCounts[i] == 0 ? -1 : rng.nextInt(memberCounts[i]);
+    }
+
+    for (Genome genome : genomes) {
+      if (chosenMember[genome.getSpecies()]-- == 0) {
+        species.get(genome.getSpecies()).setRepresentative(genome);
+      }
     }
   }
 
-  private void placeInSpecies(Genome genome) {
-    Set<Integer> seenSpecies = new HashSet<>();
-    int maxSpecies = 0;
+  // Genomes join the first species whose representative they are compatible with. The existing
+  // species are searched in parallel. Genomes that fit none of them are then placed in order, each
+  // founding a new species unless it fits one founded earlier in this generation.
+  private void placeInSpecies(Genome[] newGenomes) {
+    int existingSpecies = species.size();
+    int[] placements = new int[newGenomes.length];
 
-    for (Genome rep : genomes) {
-      int currentSpecies = rep.getSpecies();
+    IntStream.range(0, newGenomes.length)
+        .parallel()
+        .forEach(i -> placements[i] = findSpecies(newGenomes[i], 0, existingSpecies));
 
-      if (!seenSpecies.contains(currentSpecies)) {
-        if (genome.compatibilityDistance(rep, innovations) < COMPATIBILITY_DISTANCE_THRESHOLD) {
-          setSpecies(genome, currentSpecies);
-          return;
-        } else {
-          seenSpecies.add(currentSpecies);
-        }
+    for (int i = 0; i < newGenomes.length; i++) {
+      if (placements[i] == -1) {
+        placements[i] = findSpecies(newGenomes[i], existingSpecies, species.size());
       }
 
-      if (currentSpecies > maxSpecies) {
-        maxSpecies = currentSpecies;
+      if (placements[i] == -1) {
+        Species newSpecies = new Species(GENERATION_NUMBER);
+        newSpecies.setRepresentative(newGenomes[i]);
+        species.add(newSpecies);
+        placements[i] = species.size() - 1;
       }
     }
 
-    setSpecies(genome, maxSpecies + 1);
+    for (Species s : species) {
+      s.setSize(0);
+    }
+
+    for (int i = 0; i < newGenomes.length; i++) {
+      newGenomes[i].setSpecies(placements[i]);
+      species.get(placements[i]).add();
+    }
   }
 
-  private void setSpecies(Genome genome, int newSpecies) {
-    if (newSpecies >= species.size()) {
-      species.add(new Species(GENERATION_NUMBER));
+  private int findSpecies(Genome genome, int from, int to) {
+    for (int i = from; i < to; i++) {
+      Genome representative = species.get(i).getRepresentative();
+
+      if (representative != null
+          && genome.compatibilityDistance(representative) < COMPATIBILITY_DISTANCE_THRESHOLD) {
+        return i;
+      }
     }
 
-    species.get(genome.getSpecies()).remove();
-    genome.setSpecies(newSpecies);
-    species.get(newSpecies).add();
+    return -1;
   }
 
-  public void addInnovation(ConnectionGene gene) {
-    if (!innovations.containsKey(gene)) {
-      innovations.put(gene, innovations.size());
+  public int addInnovation(ConnectionGene gene) {
+    return addInnovation(gene.getIn(), gene.getOut());
+  }
+
+  // While offspring are created in parallel, genes new to the population are left pending rather
+  // than numbered in whatever order the threads reach them. See Genome.assignPendingInnovations.
+  public int addInnovation(int in, int out) {
+    if (reproducing) {
+      int innovation = innovations.get(in, out);
+
+      return innovation == InnovationRegistry.UNKNOWN ? Genes.PENDING_INNOVATION : innovation;
     }
+
+    return innovations.register(in, out);
+  }
+
+  public int getRecurrentSteps() {
+    return recurrentSteps;
+  }
+
+  // With a positive number of steps, genomes keep their node values between updates and propagate
+  // them that many steps per update, rather than relaxing their cycles from scratch every time.
+  public void setRecurrentSteps(int recurrentSteps) {
+    assert recurrentSteps >= 0;
+
+    this.recurrentSteps = recurrentSteps;
+  }
+
+  public int getMaxActivationIterations() {
+    return maxActivationIterations;
+  }
+
+  // Limits how many times a cycle is relaxed in one activation when it does not stabilise.
+  public void setMaxActivationIterations(int maxActivationIterations) {
+    assert maxActivationIterations > 0;
+
+    this.maxActivationIterations = maxActivationIterations;
+  }
+
+  public int getEpisodes() {
+    return episodes;
+  }
+
+  public FitnessAggregation getAggregation() {
+    return aggregation;
+  }
+
+  // Evaluates each genome over a number of seeded episodes rather than on its own state, combining
+  // their scores with 'aggregation'. Every genome plays the same episodes, which change each
+  // generation. Zero episodes returns to playing each genome's own state in lockstep.
+  public void setEpisodes(int episodes, FitnessAggregation aggregation) {
+    assert episodes >= 0;
+
+    this.episodes = episodes;
+    this.aggregation = aggregation;
+  }
+
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  // Plays each genome's whole state, or each seeded episode, as a single task on 'executor' rather
+  // than updating every genome together one update at a time. Genomes never wait for each other
+  // until the end of the generation, and there are no per-update barriers. The executor can be a
+  // dedicated ForkJoinPool or one that starts a virtual thread per task. It is not used in the
+  // steady-state mode, which relies on genomes being updated together. Null returns to updating
+  // genomes together, with episodes on the common pool.
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  public int getElites() {
+    return elites;
+  }
+
+  // Copies the 'elites' fittest genomes into each new generation without crossover or mutation,
+  // so the best genomes found so far are never lost. With a deterministic state, they are not
+  // played again either. See State.isDeterministic.
+  public void setElites(int elites) {
+    assert elites >= 0 && elites <= POPULATION_COUNT;
+
+    this.elites = elites;
+  }
+
+  public EvaluationCoordinator getCoordinator() {
+    return coordinator;
+  }
+
+  // Has the coordinator's workers play the episodes, while selection and speciation stay here.
+  // This only applies while genomes play episodes, see setEpisodes. The updates that workers make
+  // are not counted in the metrics. Null returns to playing episodes in this process.
+  public void setCoordinator(EvaluationCoordinator coordinator) {
+    this.coordinator = coordinator;
+  }
+
+  public int getSteadyStateParents() {
+    return steadyStateParents;
+  }
+
+  // Replaces genomes one at a time as they end, rather than a generation at a time, so that no
+  // genome waits for the others to finish. Genomes that end are given their fitness, and once
+  // 'parents' genomes have been evaluated, each genome that ends causes the least fit evaluated
+  // genome to be replaced with an offspring of the evaluated genomes. The remaining genomes keep
+  // playing, so the number of genomes playing at once stays the same. This only applies while
+  // genomes play their own states rather than episodes. Zero parents returns to generations.
+  public void setSteadyState(int parents) {
+    assert parents >= 0 && parents <= POPULATION_COUNT;
+
+    this.steadyStateParents = parents;
+    this.evaluated = null;
+  }
+
+  // Returns the fittest genome of the last generation to be evaluated, or null before the first
+  // generation has been evaluated. With steady-state evolution, this is the genome with the highest
+  // score to have ended since the current generation began, or the last generation's if none has.
+  public Genome getChampion() {
+    return champion;
+  }
+
+  public PopulationMetrics getMetrics() {
+    return metrics;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  InnovationRegistry getInnovations() {
+    return innovations;
+  }
+
+  int genomeCount() {
+    return POPULATION_COUNT;
+  }
+
+  Genome getGenome(int index) {
+    return genomes[index];
+  }
+
+  void setGenome(int index, Genome genome) {
+    genomes[index] = genome;
+  }
+
+  int speciesCount() {
+    return species.size();
+  }
+
+  Species getSpecies(int index) {
+    return species.get(index);
   }
 
   public int innovationsSize() {
@@ -0,0 +1,245 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Measures where each generation of a population spends its time. The population times each phase
+// as it goes, and at the end of a generation the totals become a GenerationStats, which is
+// recorded as a JFR event and published through this class's MXBean interface.
+//
+// Phases are recorded by the thread driving the population. Only updates can be counted from
+// other threads.
+public final class PopulationMetrics implements PopulationMetricsMXBean {
+
+  private final long[] phaseNanos = new long[GenerationStats.Phase.values().length];
+  private final LongAdder updates = new LongAdder();
+  private long ticks;
+  private long generationStart;
+  // The bytes each thread had allocated when the generation started, by thread id, or null if
+  // allocation is not measured.
+  private Map<Long, Long> allocatedAtStart;
+  private GenerationEvent event;
+
+  private volatile GenerationStats lastGeneration;
+
+  PopulationMetrics() {
+    startGeneration();
+  }
+
+  // Adds the time since 'start' to the phase, and returns the current time to start the next one.
+  long record(GenerationStats.Phase phase, long start) {
+    long now = System.nanoTime();
+
+    phaseNanos[phase.ordinal()] += now - start;
+
+    return now;
+  }
+
+  // Records a tick that started at 'start'. The genomes updated during it count themselves with
+  // recordUpdates.
+  long recordTick(long start) {
+    ticks++;
+
+    return record(GenerationStats.Phase.SIMULATE, start);
+  }
+
+  // Counts updates made outside of ticks, and may be called from any thread.
+  void recordUpdates(long count) {
+    updates.add(count);
+  }
+
+  // Publishes the statistics of the generation that has just ended, and starts timing the next.
+  void finishGeneration(int generation, float meanFitness) {
+    long allocatedBytes = allocatedSince(allocatedAtStart);
+
+    lastGeneration =
+        new GenerationStats(
+            generation,
+            phaseNanos,
+            System.nanoTime() - generationStart,
+            ticks,
+            updates.sum(),
+            allocatedBytes,
+            meanFitness);
+
+    commitEvent(lastGeneration);
+    startGeneration();
+  }
+
+  private void startGeneration() {
+    Arrays.fill(phaseNanos, 0);
+    updates.reset();
+    ticks = 0;
+    generationStart = System.nanoTime();
+    allocatedAtStart = allocatedBytes();
+    event = new GenerationEvent();
+    event.begin();
+  }
+
+  private void commitEvent(GenerationStats stats) {
+    event.end();
+
+    if (event.shouldCommit()) {
+      event.generation = stats.generation();
+      event.simulate = stats.nanos(GenerationStats.Phase.SIMULATE);
+      event.evaluate = stats.nanos(GenerationStats.Phase.EVALUATE);
+      event.select = stats.nanos(GenerationStats.Phase.SELECT);
+      event.reproduce = stats.nanos(GenerationStats.Phase.REPRODUCE);
+      event.speciate = stats.nanos(GenerationStats.Phase.SPECIATE);
+      event.ticks = stats.ticks();
+      event.updates = stats.updates();
+      event.updatesPerSecond = stats.updatesPerSecond();
+      event.meanActiveGenomes = stats.meanActiveGenomes();
+      event.allocated = stats.allocatedBytes();
+      event.meanFitness = stats.meanFitness();
+      event.commit();
+    }
+  }
+
+  // The bytes allocated since 'start' by the platform threads alive now, or -1 if allocation is not
+  // measured. Each thread counts from what it had allocated at the start, or from nothing if it has
+  // started since, so a thread that stops only loses what it allocated and never makes the total
+  // negative.
+  private static long allocatedSince(Map<Long, Long> start) {
+    Map<Long, Long> now = allocatedBytes();
+
+    if (now == null || start == null) {
+      return -1;
+    }
+
+    long total = 0;
+
+    for (Map.Entry<Long, Long> thread : now.entrySet()) {
+      total += Math.max(thread.getValue() - start.getOrDefault(thread.getKey(), 0L), 0);
+    }
+
+    return total;
+  }
+
+  // The bytes allocated so far by every live platform thread, by thread id, or null if allocation
+  // is not measured. Virtual threads are not included.
+  private static Map<Long, Long> allocatedBytes() {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+      return null;
+    }
+
+    long[] ids = threads.getAllThreadIds();
+    long[] bytes = threads.getThreadAllocatedBytes(ids);
+    Map<Long, Long> allocated = new HashMap<>();
+
+    for (int i = 0; i < ids.length; i++) {
+      // Threads that stopped since their ids were read report -1.
+      if (bytes[i] >= 0) {
+        allocated.put(ids[i], bytes[i]);
+      }
+    }
+
+    return allocated;
+  }
+
+  // Returns null until the first generation has ended.
+  public GenerationStats getLastGeneration() {
+    return lastGeneration;
+  }
+
+  // Publishes these metrics to the platform MBean server as NEAT:type=Population,name='name'.
+  public ObjectName register(String name) throws JMException {
+    ObjectName objectName = new ObjectName("NEAT:type=Population,name=" + ObjectName.quote(name));
+
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+
+    return objectName;
+  }
+
+  @Override
+  public int getGeneration() {
+    GenerationStats stats = lastGeneration;
+
+    return stats == null ? -1 : stats.generation();
+  }
+
+  @Override
+  public double getSimulateMillis() {
+    return millis(GenerationStats.Phase.SIMULATE);
+  }
+
+  @Override
+  public double getEvaluateMillis() {
+    return millis(GenerationStats.Phase.EVALUATE);
+  }
+
+  @Override
+  public double getSelectMillis() {
+    return millis(GenerationStats.Phase.SELECT);
+  }
+
+  @Override
+  public double getReproduceMillis() {
+    return millis(GenerationStats.Phase.REPRODUCE);
+  }
+
+  @Override
+  public double getSpeciateMillis() {
+    return millis(GenerationStats.Phase.SPECIATE);
+  }
+
+  @Override
+  public double getTotalMillis() {
+    GenerationStats stats = lastGeneration;
+
+    return stats == null ? 0 : stats.totalNanos() / 1e6;
+  }
+
+  @Override
+  public double getTicksPerSecond() {
+    GenerationStats stats = lastGeneration;
+
+    return stats == null ? 0 : stats.ticksPerSecond();
+  }
+
+  @Override
+  public double getUpdatesPerSecond() {
+    GenerationStats stats = lastGeneration;
+
+    return stats == null ? 0 : stats.updatesPerSecond();
+  }
+
+  @Override
+  public double getMeanActiveGenomes() {
+    GenerationStats stats = lastGeneration;
+
+    return stats == null ? Double.NaN : stats.meanActiveGenomes();
+  }
+
+  // Counts the platform threads that are alive at the end of the generation, so an executor of
+  // virtual threads is not counted, and neither is what a thread allocated before it stopped.
+  @Override
+  public long getAllocatedBytes() {
+    GenerationStats stats = lastGeneration;
+
+    return stats == null ? -1 : stats.allocatedBytes();
+  }
+
+  @Override
+  public float getMeanFitness() {
+    GenerationStats stats = lastGeneration;
+
+    return stats == null ? 0 : stats.meanFitness();
+  }
+
+  private double millis(GenerationStats.Phase phase) {
+    GenerationStats stats = lastGeneration;
+
+    return stats == null ? 0 : stats.nanos(phase) / 1e6;
+  }
+}
@@ -0,0 +1,28 @@
+// The statistics of a population's most recent generation, as published over JMX. Times are in
+// milliseconds.
+public interface PopulationMetricsMXBean {
+
+  int getGeneration();
+
+  double getSimulateMillis();
+
+  double getEvaluateMillis();
+
+  double getSelectMillis();
+
+  double getReproduceMillis();
+
+  double getSpeciateMillis();
+
+  double getTotalMillis();
+
+  double getTicksPerSecond();
+
+  double getUpdatesPerSecond();
+
+  double getMeanActiveGenomes();
+
+  long getAllocatedBytes();
+
+  float getMeanFitness();
+}
@@ -4,11 +4,22 @@ public class Species {
   private float maxFitness;
   private int generationLastImproved;
   private int size;
+  // Genomes are compared against this genome when deciding whether they belong to the species.
+  private Genome representative;
 
   public Species(int currentGeneration) {
     maxFitness = 0;
     generationLastImproved = currentGeneration;
     size = 0;
+    representative = null;
+  }
+
+  // Restores a species from a checkpoint. It has no representative until the next generation.
+  Species(float maxFitness, int generationLastImproved, int size) {
+    this.maxFitness = maxFitness;
+    this.generationLastImproved = generationLastImproved;
+    this.size = size;
+    this.representative = null;
   }
 
   public boolean isStagnant(int currentGeneration) {
@@ -37,4 +48,20 @@ public class Species {
   public int size() {
     return size;
   }
+
+  public float getMaxFitness() {
+    return maxFitness;
+  }
+
+  public int getGenerationLastImproved() {
+    return generationLastImproved;
+  }
+
+  public Genome getRepresentative() {
+    return representative;
+  }
+
+  public void setRepresentative(Genome representative) {
+    this.representative = representative;
+  }
 }
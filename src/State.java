@@ -1,24 +1,50 @@
 public interface State {
+  float SIGMOID_CONSTANT = ActivationFunction.SIGMOID_CONSTANT;
+
   float evaluateFitness();
 
   void update(float[] inputs);
 
   float[] getGenomeInputs();
 
+  // Writes the inputs into 'out', which is reused between updates. States that are updated often
+  // should override this so that it does not allocate.
+  default void getGenomeInputs(float[] out) {
+    float[] inputs = getGenomeInputs();
+
+    System.arraycopy(inputs, 0, out, 0, inputs.length);
+  }
+
   boolean hasEnded();
 
   State reset();
 
+  // Returns a fresh state for an episode that plays out the same way every time for a given seed.
+  // States with any randomness should override this, as by default the seed is ignored.
+  default State reset(long seed) {
+    return reset();
+  }
+
   State deepCopy();
 
+  // Whether a genome always scores the same on a state from reset(). Populations then remember
+  // the scores of the last generation, and genomes carried over unchanged are not played again.
+  default boolean isDeterministic() {
+    return false;
+  }
+
   float activate(float x);
 
+  // The function applied by nodes of the given type. By default every node uses activate.
+  default ActivationFunction activationFunction(NodeType type) {
+    return ActivationFunction.STATE;
+  }
+
   static float sigmoid(float x) {
-    final float SIGMOID_CONSTANT = 4.9f;
-    return (float) (1 / (1 + Math.exp(-SIGMOID_CONSTANT * x)));
+    return ActivationFunction.sigmoid(x);
   }
 
   static float relu(float x) {
-    return Math.max(0, x);
+    return ActivationFunction.relu(x);
   }
 }
@@ -1,20 +1,41 @@
 import org.junit.Test;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import static org.junit.Assert.*;
 
 public class TestSuite {
   private static final Random rng = new Random();
   private static final BlankState blankState = new BlankState();
+  private static final BlankState identityState = new IdentityState();
 
   // Arbitrary input and output counts for testing.
   private static final int INPUT_COUNT = 10;
   private static final int OUTPUT_COUNT = 10;
 
-  // TODO: Test crossover, placeInSpecies, and activate functions.
-
   @Test
   public void genomeInitialises() {
     int inputCount = rng.nextInt(20) + 1;
@@ -60,6 +81,44 @@ public class TestSuite {
     assertEquals(inputCount * outputCount + 1, population.innovationsSize());
   }
 
+  @Test
+  public void testConcurrentInnovations() throws InterruptedException {
+    InnovationRegistry registry = new InnovationRegistry();
+    int geneCount = 5000;
+    int[][] innovations = new int[4][geneCount];
+    Thread[] threads = new Thread[innovations.length];
+
+    for (int t = 0; t < threads.length; t++) {
+      int[] result = innovations[t];
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < geneCount; i++) {
+          result[i] = registry.register(i, i + 1);
+        }
+      });
+      threads[t].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(geneCount, registry.size());
+    assertEquals(InnovationRegistry.UNKNOWN, registry.get(geneCount, 0));
+
+    boolean[] seen = new boolean[geneCount];
+
+    for (int i = 0; i < geneCount; i++) {
+      int innovation = registry.get(i, i + 1);
+
+      assertFalse(seen[innovation]);
+      seen[innovation] = true;
+
+      for (int[] result : innovations) {
+        assertEquals(innovation, result[i]);
+      }
+    }
+  }
+
   @Test
   public void testAddNodeMutation() {
     Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
@@ -112,6 +171,46 @@ public class TestSuite {
         genome.getNode(in).equals(NodeType.HIDDEN) || genome.getNode(out).equals(NodeType.HIDDEN));
   }
 
+  @Test
+  public void testAddEveryConnection() {
+    Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
+    Genome genome = new Genome(INPUT_COUNT, OUTPUT_COUNT, blankState, new Random(7), population);
+
+    while (genome.nodeCount() < INPUT_COUNT + OUTPUT_COUNT + 3) {
+      genome.mutateAddNode();
+    }
+
+    // Once the genome is nearly full, the last connections are found by enumerating them.
+    for (int i = 0; i < 5000; i++) {
+      genome.mutateAddConnection();
+    }
+
+    int sources = INPUT_COUNT + 3;
+    int targets = OUTPUT_COUNT + 3;
+    Set<Long> connections = new HashSet<>();
+
+    for (int i = 0; i < genome.connectionCount(); i++) {
+      Connection connection = genome.getConnection(i);
+
+      assertNotEquals(connection.getIn(), connection.getOut());
+      assertNotEquals(NodeType.OUTPUT, genome.getNode(connection.getIn()));
+      assertNotEquals(NodeType.INPUT, genome.getNode(connection.getOut()));
+      assertTrue(connections.add((long) connection.getIn() << 32 | connection.getOut()));
+    }
+
+    // Every pair of nodes is connected, apart from hidden nodes to themselves.
+    assertEquals(sources * targets - 3, genome.connectionCount());
+
+    // Copies know which connections they already have.
+    Genome copy = genome.copy(new Random(8));
+
+    for (int i = 0; i < 100; i++) {
+      copy.mutateAddConnection();
+    }
+
+    assertEquals(genome.connectionCount(), copy.connectionCount());
+  }
+
   @Test
   public void testWeightMutation() {
     Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
@@ -134,4 +233,845 @@ public class TestSuite {
       assertTrue(newWeight <= 1 && newWeight >= -1);
     }
   }
+
+  @Test
+  public void testGenomeHash() {
+    Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
+    Genome genome = new Genome(INPUT_COUNT, OUTPUT_COUNT, blankState, new Random(5), population);
+    Genome other = new Genome(INPUT_COUNT, OUTPUT_COUNT, blankState, new Random(6), population);
+
+    assertEquals(genome.hash(), genome.copy(new Random()).hash());
+    assertNotEquals(genome.hash(), other.hash());
+
+    // Known scores are only reused for genomes that match, not just for equal hashes.
+    assertTrue(genome.playsLike(genome.copy(new Random())));
+    assertFalse(genome.playsLike(other));
+  }
+
+  @Test
+  public void testCompatibilityDistance() {
+    Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
+
+    // Seed of 5 results in a node being 'randomly' added.
+    Genome genome1 = new Genome(INPUT_COUNT, OUTPUT_COUNT, blankState, new Random(5), population);
+    Genome genome2 = new Genome(INPUT_COUNT, OUTPUT_COUNT, blankState, new Random(5), population);
+
+    assertEquals(0, genome1.compatibilityDistance(genome2), 0);
+
+    genome1.mutateAddNode();
+
+    // The two new genes are excess genes, and all matching genes share the same weight.
+    float expected = 2.0f / genome1.connectionCount();
+
+    assertEquals(expected, genome1.compatibilityDistance(genome2), 1e-6f);
+    assertEquals(expected, genome2.compatibilityDistance(genome1), 1e-6f);
+  }
+
+  @Test
+  public void testCrossover() {
+    Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
+
+    // Seed of 5 results in a node being 'randomly' added.
+    Genome fitter = new Genome(INPUT_COUNT, OUTPUT_COUNT, blankState, new Random(5), population);
+    Genome other = new Genome(INPUT_COUNT, OUTPUT_COUNT, blankState, new Random(6), population);
+    fitter.mutateAddNode();
+    fitter.setFitness(10);
+    other.setFitness(1);
+
+    Genome child = population.crossover(other, fitter, new SplittableRandom(1));
+
+    // The child inherits every gene from the fitter parent, taking the weights of matching genes
+    // from either parent.
+    assertEquals(fitter.nodeCount(), child.nodeCount());
+    assertEquals(fitter.connectionCount(), child.connectionCount());
+
+    for (int i = 0; i < child.connectionCount(); i++) {
+      Connection connection = child.getConnection(i);
+      ConnectionGene gene = new ConnectionGene(connection.getIn(), connection.getOut());
+      Connection otherConnection = other.getConnection(gene);
+
+      assertNotNull(fitter.getConnection(gene));
+      assertTrue(
+          connection.getWeight() == fitter.getConnection(gene).getWeight()
+              || (otherConnection != null
+                  && connection.getWeight() == otherConnection.getWeight()));
+    }
+  }
+
+  @Test
+  public void testReproductionIsDeterministic() throws ExecutionException, InterruptedException {
+    Population sequential = runGenerations(1, 20);
+    Population parallel = runGenerations(4, 20);
+
+    assertSameGenomes(sequential, parallel);
+  }
+
+  @Test
+  public void testCheckpoint() throws ExecutionException, InterruptedException, IOException {
+    Population population = runGenerations(4, 10);
+    Path path = Files.createTempFile("population", ".checkpoint");
+
+    try {
+      population.checkpoint(path).get();
+      Population restored = Population.load(path, new CountdownState());
+
+      assertEquals(population.GENERATION_NUMBER, restored.GENERATION_NUMBER);
+      assertSameGenomes(population, restored);
+
+      // The restored population evolves exactly as the original does.
+      runGenerations(population, 4, 20);
+      runGenerations(restored, 4, 20);
+      assertSameGenomes(population, restored);
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testCorruptCheckpoint() {
+    Population empty = new Population(0, 0, 0, new InnovationRegistry(), new ArrayList<>());
+    byte[] checkpoint = Checkpoint.encode(empty);
+    // The genome count follows the settings and the empty innovation and species lists.
+    int genomeCount = checkpoint.length - Integer.BYTES;
+
+    for (int count : new int[] {-1, Integer.MAX_VALUE}) {
+      ByteBuffer corrupt = ByteBuffer.wrap(checkpoint.clone()).putInt(genomeCount, count);
+
+      try {
+        Checkpoint.decode(corrupt, new CountdownState());
+        fail("Read a checkpoint with " + count + " genomes");
+      } catch (IOException e) {
+        // A corrupt count is reported rather than allocated.
+      }
+    }
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    Path path = Files.createTempFile("generations", ".jfr");
+
+    try (Recording recording = new Recording()) {
+      recording.enable("neat.Generation");
+      recording.start();
+      Population population = runGenerations(4, 3);
+      recording.stop();
+      recording.dump(path);
+
+      GenerationStats stats = population.getMetrics().getLastGeneration();
+
+      // Every countdown state ends after 5 updates, at the same time.
+      assertEquals(2, stats.generation());
+      assertEquals(5, stats.ticks());
+      assertEquals(250, stats.updates());
+      assertEquals(50, stats.meanActiveGenomes(), 0);
+      assertTrue(stats.nanos(GenerationStats.Phase.SIMULATE) > 0);
+      assertTrue(stats.nanos(GenerationStats.Phase.REPRODUCE) > 0);
+
+      List<RecordedEvent> events = RecordingFile.readAllEvents(path);
+      assertEquals(3, events.size());
+      assertEquals(250, events.get(2).getLong("updates"));
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = population.getMetrics().register("test");
+
+      try {
+        assertEquals(2, server.getAttribute(name, "Generation"));
+      } finally {
+        server.unregisterMBean(name);
+      }
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testSteadyState() {
+    Population population = new Population(50, 2, 2, new CountdownState(), 42);
+    population.setSteadyState(25);
+
+    for (int tick = 1; tick <= 60; tick++) {
+      population.update();
+
+      int playing = 0;
+      int speciesSizes = 0;
+
+      for (int i = 0; i < 50; i++) {
+        playing += population.getGenome(i).hasEnded() ? 0 : 1;
+      }
+
+      for (int i = 0; i < population.speciesCount(); i++) {
+        speciesSizes += population.getSpecies(i).size();
+      }
+
+      // Every countdown ends after 5 updates. Once the first 25 genomes have been evaluated, each
+      // genome that ends is replaced, so the same 26 genomes are always playing.
+      assertEquals(tick < 5 ? 50 : 26, playing);
+      assertEquals(50, speciesSizes);
+    }
+
+    // 26 genomes are replaced every 5 ticks, and each 50 replacements count as a generation.
+    assertEquals(6, population.GENERATION_NUMBER);
+    assertNotNull(population.getChampion());
+    assertTrue(population.getChampion().hasEnded());
+  }
+
+  @Test
+  public void testRunToCompletion() throws ExecutionException, InterruptedException {
+    Population lockstep = runGenerations(4, 10);
+    Population runToCompletion = new Population(50, 2, 2, new CountdownState(), 42);
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      runToCompletion.setExecutor(pool);
+
+      while (runToCompletion.GENERATION_NUMBER < 10) {
+        runToCompletion.update();
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    // Each generation takes a single update of the population, but evolves exactly as before.
+    assertSameGenomes(lockstep, runToCompletion);
+    assertEquals(0, runToCompletion.getMetrics().getLastGeneration().ticks());
+    assertEquals(250, runToCompletion.getMetrics().getLastGeneration().updates());
+  }
+
+  @Test
+  public void testDistributedEvaluation() throws Exception {
+    Population local = new Population(50, 2, 2, new WalkState(0), 42);
+    Population distributed = new Population(50, 2, 2, new WalkState(0), 42);
+    List<Process> workers = new ArrayList<>();
+
+    local.setEpisodes(3, FitnessAggregation.MEDIAN);
+    distributed.setEpisodes(3, FitnessAggregation.MEDIAN);
+
+    try (EvaluationCoordinator coordinator = new EvaluationCoordinator(0, 8)) {
+      for (int i = 0; i < 3; i++) {
+        workers.add(
+            new ProcessBuilder(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp",
+                    System.getProperty("java.class.path"),
+                    RemoteWorker.class.getName(),
+                    String.valueOf(coordinator.getPort()))
+                .inheritIO()
+                .start());
+      }
+
+      assertTrue(coordinator.awaitWorkers(3, 30, TimeUnit.SECONDS));
+      distributed.setCoordinator(coordinator);
+
+      while (distributed.GENERATION_NUMBER < 10) {
+        // The batches sent to a worker that has died are played by the others.
+        if (distributed.GENERATION_NUMBER == 5) {
+          workers.get(0).destroyForcibly().waitFor();
+        }
+
+        local.update();
+        distributed.update();
+
+        assertEquals(local.getChampion().getFitness(), distributed.getChampion().getFitness(), 0);
+      }
+    } finally {
+      for (Process worker : workers) {
+        worker.destroyForcibly();
+      }
+    }
+
+    assertSameGenomes(local, distributed);
+  }
+
+  @Test
+  public void testHungWorker() throws Exception {
+    Population local = new Population(50, 2, 2, new WalkState(0), 42);
+    Population distributed = new Population(50, 2, 2, new WalkState(0), 42);
+
+    local.setEpisodes(3, FitnessAggregation.MEDIAN);
+    distributed.setEpisodes(3, FitnessAggregation.MEDIAN);
+
+    try (EvaluationCoordinator coordinator =
+            new EvaluationCoordinator(0, 8, 1, TimeUnit.SECONDS);
+        Socket hung = new Socket("localhost", coordinator.getPort())) {
+      // Connects as a worker, but never sends back any scores.
+      DataOutputStream out = new DataOutputStream(hung.getOutputStream());
+      out.writeInt(EvaluationCoordinator.MAGIC);
+      out.writeInt(EvaluationCoordinator.VERSION);
+      out.flush();
+
+      assertTrue(coordinator.awaitWorkers(1, 30, TimeUnit.SECONDS));
+
+      Thread worker =
+          new Thread(
+              () -> {
+                try {
+                  EvaluationWorker.run("localhost", coordinator.getPort(), new WalkState(0));
+                } catch (IOException e) {
+                  // The coordinator has been closed.
+                }
+              });
+      worker.setDaemon(true);
+      worker.start();
+
+      assertTrue(coordinator.awaitWorkers(2, 30, TimeUnit.SECONDS));
+      distributed.setCoordinator(coordinator);
+
+      // The hung worker is waiting first, so it is sent the first batch. Once it times out, the
+      // other worker plays it.
+      local.update();
+      distributed.update();
+
+      assertEquals(1, coordinator.workerCount());
+    }
+
+    assertSameGenomes(local, distributed);
+  }
+
+  @Test
+  public void testElites() {
+    Population remembering = new Population(50, 2, 2, new DeterministicState(), 42);
+    Population replaying = new Population(50, 2, 2, new CountdownState(), 42);
+
+    remembering.setElites(3);
+    replaying.setElites(3);
+
+    while (remembering.GENERATION_NUMBER < 10) {
+      remembering.update();
+      replaying.update();
+
+      if (remembering.GENERATION_NUMBER > 0) {
+        Genome champion = remembering.getChampion();
+        Genome elite = remembering.getGenome(0);
+
+        // The champion is carried over unchanged, and is not played again.
+        assertEquals(champion.hash(), elite.hash());
+        assertTrue(elite.hasEnded());
+        assertEquals(champion.evaluateFitness(), elite.evaluateFitness(), 0);
+      }
+    }
+
+    // Remembering scores changes how much is played, but not how the population evolves.
+    assertSameGenomes(remembering, replaying);
+    assertEquals(250, replaying.getMetrics().getLastGeneration().updates());
+    assertTrue(remembering.getMetrics().getLastGeneration().updates() <= 235);
+  }
+
+  private static void assertSameGenomes(Population population1, Population population2) {
+    assertEquals(population1.innovationsSize(), population2.innovationsSize());
+
+    for (int i = 0; i < 50; i++) {
+      Genome genome1 = population1.getGenome(i);
+      Genome genome2 = population2.getGenome(i);
+
+      assertEquals(genome1.getSpecies(), genome2.getSpecies());
+      assertEquals(genome1.nodeCount(), genome2.nodeCount());
+      assertEquals(genome1.connectionCount(), genome2.connectionCount());
+
+      for (int j = 0; j < genome1.connectionCount(); j++) {
+        Connection connection1 = genome1.getConnection(j);
+        Connection connection2 = genome2.getConnection(j);
+
+        assertEquals(connection1.getIn(), connection2.getIn());
+        assertEquals(connection1.getOut(), connection2.getOut());
+        assertEquals(connection1.getWeight(), connection2.getWeight(), 0);
+        assertEquals(connection1.isDisabled(), connection2.isDisabled());
+      }
+    }
+  }
+
+  @Test
+  public void testPlaceInSpecies() throws ExecutionException, InterruptedException {
+    Population population = runGenerations(4, 20);
+    int speciesSize = 0;
+
+    // Every genome is compatible with the representative of the species it was placed in.
+    for (int i = 0; i < 50; i++) {
+      Genome genome = population.getGenome(i);
+      Species species = population.getSpecies(genome.getSpecies());
+
+      assertNotNull(species.getRepresentative());
+      assertTrue(
+          genome.compatibilityDistance(species.getRepresentative())
+              < Population.COMPATIBILITY_DISTANCE_THRESHOLD);
+
+      if (genome.getSpecies() == 0) {
+        speciesSize++;
+      }
+    }
+
+    assertEquals(speciesSize, population.getSpecies(0).size());
+  }
+
+  private static Population runGenerations(int threads, int generations)
+      throws ExecutionException, InterruptedException {
+    return runGenerations(new Population(50, 2, 2, new CountdownState(), 42), threads, generations);
+  }
+
+  private static Population runGenerations(Population population, int threads, int generations)
+      throws ExecutionException, InterruptedException {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+
+    try {
+      while (population.GENERATION_NUMBER < generations) {
+        pool.submit(population::update).get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    return population;
+  }
+
+  @Test
+  public void testFitnessTable() {
+    Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
+    Genome[] genomes = new Genome[4];
+
+    for (int i = 0; i < genomes.length; i++) {
+      genomes[i] = new Genome(INPUT_COUNT, OUTPUT_COUNT, blankState, population);
+      genomes[i].setFitness(i % 2);
+    }
+
+    FitnessTable table = new FitnessTable(genomes);
+    SplittableRandom random = new SplittableRandom(1);
+
+    // Genomes without any fitness are never picked while another genome has some.
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(1, table.sample(random).getFitness(), 0);
+    }
+
+    for (Genome genome : genomes) {
+      genome.setFitness(0);
+    }
+
+    FitnessTable unfitTable = new FitnessTable(genomes);
+    boolean[] picked = new boolean[genomes.length];
+
+    for (int i = 0; i < 1000; i++) {
+      Genome genome = unfitTable.sample(random);
+
+      for (int j = 0; j < genomes.length; j++) {
+        picked[j] |= genomes[j] == genome;
+      }
+    }
+
+    assertArrayEquals(new boolean[] {true, true, true, true}, picked);
+  }
+
+  @Test
+  public void testEpisodes() {
+    assertEquals(3, FitnessAggregation.MEAN.aggregate(new float[] {6, 1, 2}), 1e-6f);
+    assertEquals(2, FitnessAggregation.MEDIAN.aggregate(new float[] {6, 1, 2}), 0);
+    assertEquals(2.5f, FitnessAggregation.MEDIAN.aggregate(new float[] {4, 1, 3, 2}), 0);
+    assertEquals(1, FitnessAggregation.MIN.aggregate(new float[] {6, 1, 2}), 0);
+
+    float[] fitness = new float[FitnessAggregation.values().length];
+
+    for (FitnessAggregation aggregation : FitnessAggregation.values()) {
+      Population population = new Population(20, 2, 2, new SeededState(), 7);
+      population.setEpisodes(5, aggregation);
+      population.evaluateEpisodes();
+      fitness[aggregation.ordinal()] = population.getGenome(0).getFitness();
+
+      // Every genome plays the same episodes, whose scores depend only on their seeds.
+      for (int i = 0; i < 20; i++) {
+        assertEquals(fitness[aggregation.ordinal()], population.getGenome(i).getFitness(), 0);
+      }
+    }
+
+    float min = fitness[FitnessAggregation.MIN.ordinal()];
+
+    assertTrue(min < fitness[FitnessAggregation.MEAN.ordinal()]);
+    assertTrue(min < fitness[FitnessAggregation.MEDIAN.ordinal()]);
+  }
+
+  @Test
+  public void testActivate() {
+    Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
+
+    // Seed of 5 results in a node being 'randomly' added.
+    Genome genome = new Genome(INPUT_COUNT, OUTPUT_COUNT, identityState, new Random(5), population);
+
+    float[] inputs = new float[INPUT_COUNT];
+
+    for (int i = 0; i < INPUT_COUNT; i++) {
+      inputs[i] = rng.nextFloat();
+    }
+
+    float[] expected = new float[OUTPUT_COUNT];
+
+    for (int i = 0; i < genome.connectionCount(); i++) {
+      Connection connection = genome.getConnection(i);
+      expected[connection.getOut() - INPUT_COUNT] += inputs[connection.getIn()] * connection.getWeight();
+    }
+
+    assertArrayEquals(expected, genome.activate(inputs), 1e-5f);
+
+    // Splitting a connection with identity activations should not change the outputs.
+    genome.mutateAddNode();
+
+    assertArrayEquals(expected, genome.activate(inputs), 1e-5f);
+  }
+
+  @Test
+  public void testBatchActivate() {
+    Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
+    Genome genome =
+        new Genome(INPUT_COUNT, OUTPUT_COUNT, new CountdownState(), new Random(5), population);
+
+    while (genome.nodeCount() < INPUT_COUNT + OUTPUT_COUNT + 10) {
+      genome.mutateAddNode();
+    }
+
+    // More rows than are evaluated together, so that a partial group is included.
+    float[][] inputs = new float[100][INPUT_COUNT];
+    float[][] outputs = new float[inputs.length][OUTPUT_COUNT];
+
+    for (float[] row : inputs) {
+      for (int i = 0; i < INPUT_COUNT; i++) {
+        row[i] = rng.nextFloat() * 2 - 1;
+      }
+    }
+
+    genome.activate(inputs, outputs);
+
+    for (int i = 0; i < inputs.length; i++) {
+      assertArrayEquals(genome.activate(inputs[i]), outputs[i], 1e-6f);
+    }
+  }
+
+  @Test
+  public void testRecurrentActivation() {
+    Population population = new Population(0, 1, 1, new BlankState());
+    float[] inputs = {1};
+
+    // A cycle between the output and a hidden node with strong negative feedback, which makes it
+    // oscillate rather than stabilise.
+    // Existing genomes follow changes to the population's settings.
+    Genome genome = oscillatingGenome(population);
+    population.setMaxActivationIterations(1000);
+    float capped = genome.activate(inputs)[0];
+    population.setMaxActivationIterations(1001);
+    float cappedLater = genome.activate(inputs)[0];
+
+    assertNotEquals(capped, cappedLater, 1e-3f);
+
+    // Recurrent genomes carry their node values over, so the same inputs give different outputs.
+    population.setRecurrentSteps(1);
+    Genome recurrent = oscillatingGenome(population);
+    float first = recurrent.activate(inputs)[0];
+    float second = recurrent.activate(inputs)[0];
+    float third = recurrent.activate(inputs)[0];
+
+    assertNotEquals(first, second, 1e-3f);
+    assertNotEquals(second, third, 1e-3f);
+  }
+
+  @Test
+  public void testFastSigmoid() {
+    for (float x = -10; x <= 10; x += 1e-4f) {
+      assertEquals(State.sigmoid(x), ActivationFunction.FAST_SIGMOID.apply(x), 3e-6f);
+    }
+  }
+
+  @Test
+  public void testNetworkIsStandalone() throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    Path output = Files.createTempDirectory("network");
+
+    assertNotNull(compiler);
+
+    // Exported networks must run with these two classes alone.
+    assertEquals(
+        0,
+        compiler.run(
+            null,
+            null,
+            null,
+            "-d",
+            output.toString(),
+            "src/Network.java",
+            "src/ActivationFunction.java"));
+  }
+
+  @Test
+  public void testExportNetwork() throws IOException {
+    Population population = new Population(0, INPUT_COUNT, OUTPUT_COUNT, new BlankState());
+    Genome genome =
+        new Genome(INPUT_COUNT, OUTPUT_COUNT, new SigmoidState(), new Random(1), population);
+
+    // Enough hidden nodes and connections for some cycles to form.
+    while (genome.nodeCount() < INPUT_COUNT + OUTPUT_COUNT + 10) {
+      genome.mutateAddNode();
+    }
+
+    while (genome.connectionCount() < INPUT_COUNT * OUTPUT_COUNT + 40) {
+      genome.mutateAddConnection();
+    }
+
+    Path path = Files.createTempFile("champion", ".network");
+
+    try {
+      genome.export(path);
+      Network network = Network.load(path);
+
+      for (int i = 0; i < 100; i++) {
+        float[] inputs = new float[INPUT_COUNT];
+
+        for (int j = 0; j < INPUT_COUNT; j++) {
+          inputs[j] = rng.nextFloat();
+        }
+
+        assertArrayEquals(genome.activate(inputs), network.activate(inputs), 0);
+      }
+    } finally {
+      Files.delete(path);
+    }
+
+    // Networks cannot depend on a state.
+    try {
+      new Genome(INPUT_COUNT, OUTPUT_COUNT, blankState, population).toNetwork();
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void testLevel() {
+    SplittableRandom rng = new SplittableRandom(42);
+    float[] inputs = new float[24];
+    float[] walked = new float[24];
+    float fitness = 0;
+
+    for (int game = 0; game < 200; game++) {
+      // The sides differ, so cells indexed the wrong way round are caught.
+      Level level = new Level(12, 9, rng.nextLong());
+
+      assertFreeCells(level);
+
+      while (!level.hasEnded()) {
+        level.getGenomeInputs(inputs);
+        level.walkGenomeInputs(walked);
+        assertArrayEquals(walked, inputs, 0);
+
+        // Moves that do not run into the body or a wall, which is each direction's first and
+        // third input, keep the snake alive long enough to grow.
+        int[] safe = new int[4];
+        int safeCount = 0;
+
+        for (int move = 0; move < 4; move++) {
+          if (walked[move * 6] != 1 && walked[move * 6 + 2] != 1) {
+            safe[safeCount++] = move;
+          }
+        }
+
+        float[] outputs = new float[4];
+        outputs[safeCount == 0 ? rng.nextInt(4) : safe[rng.nextInt(safeCount)]] = 1;
+        level.update(outputs);
+        assertFreeCells(level);
+      }
+
+      fitness += level.evaluateFitness();
+    }
+
+    // Some snakes grew, so the body has been seen in every direction.
+    assertTrue(fitness > 0);
+  }
+
+  private static void assertFreeCells(Level level) {
+    int cells = level.width() * level.height();
+    int nonEmpty = 0;
+
+    for (int cell = 0; cell < cells; cell++) {
+      if (level.isEmpty(cell)) {
+        assertEquals(cell, level.freeCell(level.freeCellIndex(cell)));
+      } else {
+        nonEmpty++;
+      }
+    }
+
+    assertEquals(cells - nonEmpty, level.freeCellCount());
+
+    for (int i = 0; i < level.freeCellCount(); i++) {
+      assertTrue(level.isEmpty(level.freeCell(i)));
+    }
+  }
+
+  private static Genome oscillatingGenome(Population population) {
+    Genome parent = new Genome(1, 1, new CountdownState(), new Random(1), population);
+
+    while (parent.nodeCount() < 3) {
+      parent.mutateAddNode();
+    }
+
+    Genes genes = new Genes();
+    genes.add(0, 1, population.addInnovation(0, 1), 0.5f, true);
+    genes.add(0, 2, population.addInnovation(0, 2), -0.5f, true);
+    genes.add(1, 2, population.addInnovation(1, 2), 1, true);
+    genes.add(2, 1, population.addInnovation(2, 1), -1, true);
+
+    return new Genome(1, 1, genes, parent, new Random(1), population);
+  }
+
+  // Identity activations make the expected outputs of a network easy to calculate.
+  private static class IdentityState extends BlankState {
+    @Override
+    public float activate(float x) {
+      return x;
+    }
+  }
+
+  private static class SigmoidState extends BlankState {
+    @Override
+    public ActivationFunction activationFunction(NodeType type) {
+      return ActivationFunction.FAST_SIGMOID;
+    }
+  }
+
+  // Ends after a single update, scoring a number drawn from its seed.
+  private static class SeededState extends BlankState {
+    private final float score;
+    private boolean ended = false;
+
+    SeededState() {
+      this(0);
+    }
+
+    SeededState(long seed) {
+      this.score = new Random(seed).nextInt(100);
+    }
+
+    @Override
+    public float evaluateFitness() {
+      return score;
+    }
+
+    @Override
+    public void update(float[] inputs) {
+      ended = true;
+    }
+
+    @Override
+    public float[] getGenomeInputs() {
+      return new float[2];
+    }
+
+    @Override
+    public boolean hasEnded() {
+      return ended;
+    }
+
+    @Override
+    public State reset() {
+      return new SeededState();
+    }
+
+    @Override
+    public State reset(long seed) {
+      return new SeededState(seed);
+    }
+  }
+
+  // Ends after a few updates, rewarding the outputs it is given for random inputs drawn from its
+  // seed.
+  private static class WalkState extends SigmoidState {
+    private static final int UPDATES = 5;
+
+    private final Random rng;
+    private final float[] inputs = new float[2];
+    private int updates = 0;
+    private float score = 0;
+
+    WalkState(long seed) {
+      this.rng = new Random(seed);
+      inputs[0] = rng.nextFloat();
+      inputs[1] = rng.nextFloat();
+    }
+
+    @Override
+    public float evaluateFitness() {
+      return score;
+    }
+
+    @Override
+    public void update(float[] outputs) {
+      score += inputs[0] * outputs[0] - inputs[1] * outputs[1];
+      inputs[0] = rng.nextFloat();
+      inputs[1] = rng.nextFloat();
+      updates++;
+    }
+
+    @Override
+    public float[] getGenomeInputs() {
+      return inputs.clone();
+    }
+
+    @Override
+    public boolean hasEnded() {
+      return updates >= UPDATES;
+    }
+
+    @Override
+    public State reset(long seed) {
+      return new WalkState(seed);
+    }
+  }
+
+  // Plays episodes of WalkState for the coordinator listening on the port it is given.
+  public static class RemoteWorker {
+    public static void main(String[] args) throws IOException {
+      EvaluationWorker.run("localhost", Integer.parseInt(args[0]), new WalkState(0));
+    }
+  }
+
+  // Ends after a fixed number of updates, and rewards the outputs it is given.
+  private static class CountdownState extends BlankState {
+    private static final int UPDATES = 5;
+
+    private int updates = 0;
+    private float score = 0;
+
+    @Override
+    public float evaluateFitness() {
+      return score;
+    }
+
+    @Override
+    public void update(float[] inputs) {
+      score += inputs[0] - inputs[1] + 1;
+      updates++;
+    }
+
+    @Override
+    public float[] getGenomeInputs() {
+      return new float[] {updates, score};
+    }
+
+    @Override
+    public boolean hasEnded() {
+      return updates >= UPDATES;
+    }
+
+    @Override
+    public State reset() {
+      return new CountdownState();
+    }
+
+    @Override
+    public float activate(float x) {
+      return State.sigmoid(x);
+    }
+  }
+
+  private static class DeterministicState extends CountdownState {
+    @Override
+    public boolean isDeterministic() {
+      return true;
+    }
+
+    @Override
+    public State reset() {
+      return new DeterministicState();
+    }
+  }
 }